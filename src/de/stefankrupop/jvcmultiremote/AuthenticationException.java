@@ -0,0 +1,12 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+
+// The camera rejected the credentials or the session
+public class AuthenticationException extends IOException {
+	private static final long serialVersionUID = 4387221936185210344L;
+
+	public AuthenticationException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,36 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Pool of equally sized direct buffers, so the I/O loop does not allocate per request
+class BufferPool {
+	private final int _bufferSize;
+	private final int _maxPooled;
+	private final ConcurrentLinkedQueue<ByteBuffer> _free;
+
+	public BufferPool(int bufferSize, int maxPooled) {
+		_bufferSize = bufferSize;
+		_maxPooled = maxPooled;
+		_free = new ConcurrentLinkedQueue<ByteBuffer>();
+	}
+
+	public int getBufferSize() {
+		return _bufferSize;
+	}
+
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = _free.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(_bufferSize);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	public void release(ByteBuffer buffer) {
+		if (buffer != null && buffer.isDirect() && buffer.capacity() == _bufferSize && _free.size() < _maxPooled) {
+			_free.offer(buffer);
+		}
+	}
+}
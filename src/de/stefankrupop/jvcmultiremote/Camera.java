@@ -1,146 +1,1051 @@
 package de.stefankrupop.jvcmultiremote;
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.albroco.barebonesdigest.ChallengeParseException;
 import com.albroco.barebonesdigest.DigestAuthentication;
+import com.albroco.barebonesdigest.DigestChallenge;
 import com.albroco.barebonesdigest.DigestChallengeResponse;
+import com.albroco.barebonesdigest.WwwAuthenticateHeader;
 
 public class Camera {
 	private final String LOGIN_URL = "/cgi-bin/session.cgi";
 	private final String CMD_URL = "/cgi-bin/cmd.cgi";
+	private static final int ARM_TAIL_LENGTH = 1;
+	private static final int RTT_MIN_SAMPLES = 3;
+	private static final double HEDGE_PERCENTILE = 95;
+
+	private static final ExecutorService ASYNC_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "camera-async");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private static final ScheduledExecutorService HEDGE_TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "camera-hedge");
+			t.setDaemon(true);
+			return t;
+		}
+	});
 	
 	private String _name;
 	private String _ipAddress;
+	private final CameraAddress _address;
+	private final SocketSettings _socketSettings;
+	private final Set<String> _groups;
 	private String _username;
 	private String _password;
-	private boolean _isAuthenticated;
+	private volatile boolean _isAuthenticated;
+	private final AtomicBoolean _loginPending;
+	private volatile IOException _lastLoginFailure;
+	private volatile long _lastCommandNanos;
 	private String _sessionId;
+	private DigestAuthentication _digestAuth;
+	private volatile byte[] _recStartRequest;
+	private volatile byte[] _recStopRequest;
+	private volatile JvcCommand _armedCommand;
+	private volatile CameraStatus _status;
+	private final Object _statusLock;
+	private final List<CameraStatusListener> _statusListeners;
+	private final RequestEncoder _encoder;
+	private final RttEstimator _rtt;
+	private final RttEstimator _recRtt;
+	private final CircuitBreaker _breaker;
+	private final CameraConnection _connection;
+	private final CameraConnection _hedgeConnection;
+	private final Callable<byte[]> _recStartRequestBuilder;
+	private final Callable<byte[]> _recStopRequestBuilder;
+	private volatile RetryPolicy _retryPolicy;
+	private NioTransport _transport;
+	private NioTransport.Endpoint _endpoint;
 
 	private final Logger _logger = LoggerFactory.getLogger(Camera.class);
 	
-	public Camera(String name, String ipAddress, String username, String password) {
+	public Camera(String name, String ipAddress, String username, String password) throws IOException {
+		this(name, ipAddress, username, password, SocketSettings.DEFAULT);
+	}
+
+	public Camera(String name, String ipAddress, String username, String password, SocketSettings socketSettings) throws IOException {
+		this(name, ipAddress, username, password, socketSettings, Collections.<String>emptySet());
+	}
+
+	public Camera(String name, String ipAddress, String username, String password, SocketSettings socketSettings, Set<String> groups) throws IOException {
 		_name = name;
 		_ipAddress = ipAddress;
 		_username = username;
 		_password = password;
 		_isAuthenticated = false;
 		_sessionId = "";
+		_loginPending = new AtomicBoolean(false);
+		_statusLock = new Object();
+		_rtt = new RttEstimator();
+		_recRtt = new RttEstimator();
+		_breaker = new CircuitBreaker(this.toString(), Config.getPropertyInt("breakerFailures", 3), Config.getPropertyInt("breakerOpenMs", 5000));
+		_statusListeners = new CopyOnWriteArrayList<CameraStatusListener>();
+		_address = new CameraAddress(ipAddress);
+		_socketSettings = socketSettings;
+		_groups = Collections.unmodifiableSet(groups);
+		_encoder = new RequestEncoder(CMD_URL, ipAddress);
+		_connection = new CameraConnection(_address, _socketSettings, Config.getPropertyInt("keepAliveIdleMs", 10000));
+		_hedgeConnection = new CameraConnection(_address, _socketSettings, Config.getPropertyInt("keepAliveIdleMs", 10000));
+		_recStartRequestBuilder = createRecordingRequestBuilder(true);
+		_recStopRequestBuilder = createRecordingRequestBuilder(false);
+		_retryPolicy = RetryPolicy.NONE;
 	}
 
 	public String getName() {
 		return _name;
 	}
+
+	// Groups the camera was assigned to in cameras.txt
+	public Set<String> getGroups() {
+		return _groups;
+	}
+
+	// Routes asynchronous commands through a shared selector-based transport instead of a blocking connection
+	public void setTransport(NioTransport transport) {
+		_transport = transport;
+		_endpoint = (transport != null) ? transport.register(_address, _socketSettings) : null;
+	}
 	
+	// Applies to Rec Start/Stop only, other commands are sent once
+	public void setRetryPolicy(RetryPolicy policy) {
+		_retryPolicy = policy;
+	}
+
+	// Looks up the camera's host name and pins the address used for all connections, commands never resolve names themselves
+	public boolean resolveAddress() {
+		return _address.resolve();
+	}
+
+	// True if the camera is configured by host name, so its pinned address needs refreshing
+	public boolean hasHostname() {
+		return _address.isHostname();
+	}
+
+	// Smoothed time from sending a command until the first byte of the reply, 0 until enough commands were measured
+	// for the estimate to be meaningful
+	public long getRoundTripEstimateNanos() {
+		return (_rtt.getSampleCount() >= RTT_MIN_SAMPLES) ? _rtt.getEstimateNanos() : 0;
+	}
+
+	// Time within which the camera answered the given percentage of the recent commands, 0 until enough commands
+	// were measured
+	public long getRoundTripPercentileNanos(double p) {
+		return (_rtt.getSampleCount() >= RTT_MIN_SAMPLES) ? _rtt.getPercentileNanos(p) : 0;
+	}
+
+	// Like getRoundTripPercentileNanos(), but only over Rec Start/Stop commands, which the camera answers more slowly
+	// than status polls
+	public long getRecordRoundTripPercentileNanos(double p) {
+		return (_recRtt.getSampleCount() >= RTT_MIN_SAMPLES) ? _recRtt.getPercentileNanos(p) : 0;
+	}
+
+	public boolean isAuthenticated() {
+		return _isAuthenticated;
+	}
+
+	// OPEN or HALF_OPEN while the camera is skipped after repeated failures
+	public CircuitBreaker.State getBreakerState() {
+		return _breaker.getState();
+	}
+
 	public boolean connect() throws IOException {
+		return connect(Config.getPropertyInt("loginTimeoutMs", 5000));
+	}
+
+	// A timeout of 0 waits indefinitely
+	public synchronized boolean connect(int timeoutMs) throws IOException {
+		try {
+			boolean success = login(timeoutMs);
+			_lastLoginFailure = null;
+			return success;
+		} catch (AuthenticationException e) {
+			_lastLoginFailure = e;
+			throw e;
+		} catch (IOException e) {
+			_lastLoginFailure = e;
+			recordFailure(e);
+			throw e;
+		}
+	}
+
+	// Error for a command that cannot be sent before the camera has logged in, carrying why the last login failed
+	private NotLoggedInException notLoggedIn() {
+		IOException failure = _lastLoginFailure;
+		return new NotLoggedInException("Camera " + this.toString() + " is not logged in yet"
+				+ ((failure != null) ? ", last login failed: " + failure.getMessage() : ""), failure);
+	}
+
+	private boolean login(int timeoutMs) throws IOException {
 		_logger.info("Connecting to camera " + this.toString() + "...");
-		URL url = new URL("http://" + _ipAddress + LOGIN_URL);
-		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
-		connection.setRequestMethod("GET");
-		
-		// Handle "Digest" authentication
-		if (connection.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
-			// Step 3. Create a authentication object from the challenge...
-			DigestAuthentication auth = DigestAuthentication.fromResponse(connection);
-			// ...with correct credentials
-			auth.username(_username).password(_password);
-
-			// Step 4 (Optional). Check if the challenge was a digest challenge of a
-			// supported type
-			if (!auth.canRespond()) {
-				// No digest challenge or a challenge of an unsupported type - do something else
-				// or fail
-				return false;
-			}
-
-			// Step 5. Create a new connection, identical to the original one...
-			connection = (HttpURLConnection)url.openConnection();
-			// ...and set the Authorization header on the request, with the challenge
-			// response
-			connection.setRequestProperty(DigestChallengeResponse.HTTP_HEADER_AUTHORIZATION,
-					auth.getAuthorizationForRequest("GET", connection.getURL().getPath()));
+		Deadline deadline = (timeoutMs > 0) ? Deadline.after(timeoutMs) : Deadline.NONE;
+		if (_address.getResolved() == null && !_address.resolve()) {
+			throw new IOException("Could not connect: Unknown host " + _address.getHost());
 		}
-		
-		connection.connect();
-		if (connection.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
-			throw new IOException("Could not connect: Invalid username and/or password");
+
+		HttpResponse response;
+		if (_digestAuth != null) {
+			// Authorize preemptively with the nonce of the previous login, which saves the round trip for the challenge
+			response = _connection.execute(loginRequest(_digestAuth), true, deadline);
+			if (response.getStatus() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+				DigestChallenge challenge = digestChallenge(response);
+				String nonce = _digestAuth.getChallengeResponse().getNonce();
+				if (challenge == null || (!challenge.isStale() && nonce.equals(challenge.getNonce()))) {
+					// Same nonce, not stale: the credentials themselves were rejected
+					_digestAuth = null;
+					throw new AuthenticationException("Could not connect: Invalid username and/or password");
+				}
+				_logger.debug("Nonce of camera " + this.toString() + " is no longer valid, answering the new challenge");
+				response = respondToChallenge(response, deadline);
+			}
+		} else {
+			response = _connection.execute(loginRequest(null), true, deadline);
+			// Handle "Digest" authentication
+			if (response.getStatus() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+				response = respondToChallenge(response, deadline);
+			}
 		}
-		String cookie = connection.getHeaderField("Set-Cookie");
+		if (response == null) {
+			// No digest challenge or a challenge of an unsupported type
+			return false;
+		}
+
+		if (response.getStatus() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+			_digestAuth = null;
+			throw new AuthenticationException("Could not connect: Invalid username and/or password");
+		}
+		String cookie = response.getHeader("Set-Cookie");
 		if (cookie == null || !cookie.startsWith("SessionID=")) {
 			throw new IOException("Could not connect: Unexpected reply, not a session ID");
 		}
 		
-		_sessionId = cookie.replace("SessionID=", "");
+		setSessionId(cookie.replace("SessionID=", ""));
 		_isAuthenticated = true;
+		_breaker.recordSuccess();
+
+		// Warm up the keep-alive connection so the first command does not pay for the TCP handshake
+		if (_transport != null) {
+			_transport.open(_endpoint);
+		} else {
+			_connection.open((timeoutMs > 0) ? Deadline.after(timeoutMs) : Deadline.NONE);
+		}
 
 		_logger.info("Connected successfully");
 		
 		return true;
 	}
 
+	// Creates an authentication object from the challenge with our credentials and retries with it.
+	// The object is kept, so that later logins can authorize without waiting for a challenge.
+	private HttpResponse respondToChallenge(HttpResponse challengeResponse, Deadline deadline) throws IOException {
+		DigestAuthentication auth = DigestAuthentication.fromResponseHeaders(challengeResponse.getHeaders());
+		auth.username(_username).password(_password);
+		if (!auth.canRespond()) {
+			return null;
+		}
+		_digestAuth = auth;
+		return _connection.execute(loginRequest(auth), true, deadline);
+	}
+
+	private DigestChallenge digestChallenge(HttpResponse response) {
+		try {
+			for (String challenge : WwwAuthenticateHeader.extractChallenges(response.getHeaders())) {
+				if (DigestChallenge.isDigestChallenge(challenge)) {
+					return DigestChallenge.parse(challenge);
+				}
+			}
+		} catch (ChallengeParseException e) {
+			_logger.debug("Could not parse challenge of camera " + this.toString() + ": " + e.toString());
+		}
+		return null;
+	}
+
+	// getAuthorizationForRequest() increments the nonce count, so every request gets a fresh one
+	private byte[] loginRequest(DigestAuthentication auth) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("GET ").append(LOGIN_URL).append(" HTTP/1.1\r\n");
+		sb.append("Host: ").append(_ipAddress).append("\r\n");
+		if (auth != null) {
+			sb.append(DigestChallengeResponse.HTTP_HEADER_AUTHORIZATION).append(": ");
+			sb.append(auth.getAuthorizationForRequest("GET", LOGIN_URL)).append("\r\n");
+		}
+		sb.append("Connection: keep-alive\r\n\r\n");
+		return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
+
 	public boolean setRecording(boolean state) throws IOException {
-		//return sendCmd("SetCamCtrl", "{\"CamCtrl\":\"" + (state ? "Rec" : "Stop") + "\"}") // Returns success, but does not seem to do anything
-		return sendCmd("SetWebKeyEvent", "{\"Kind\":\"Rec\",\"Key\":\"" + (state ? "Start" : "Stop") + "\"}").toLowerCase().contains("success");
+		return setRecording(state, Deadline.commandDefault());
 	}
 
-	public String getCamStatus() throws IOException {
-		return sendCmd("GetCamStatus", null);
+	public boolean setRecording(boolean state, Deadline deadline) throws IOException {
+		return sendRecording(state, deadline, hedgeThreshold(_retryPolicy)).isSuccess();
 	}
-	
-	private String sendCmd(String cmd, String params) throws IOException {
+
+	public CompletableFuture<CommandResult> setRecordingAsync(boolean state, Executor executor) {
+		return setRecordingAsync(state, executor, Deadline.commandDefault());
+	}
+
+	public CompletableFuture<CommandResult> setRecordingAsync(final boolean state, Executor executor, final Deadline deadline) {
+		if (!_breaker.allowRequest()) {
+			return failed(circuitOpen());
+		}
+		if (_transport != null && _isAuthenticated) {
+			return withRetry(state, deadline, submit(JvcCommand.recording(state), recordingRequestBuilder(state), deadline));
+		}
+		return runAsync(new Callable<CommandResult>() {
+			@Override
+			public CommandResult call() throws IOException {
+				return sendRecording(state, deadline, hedgeThreshold(_retryPolicy));
+			}
+		}, executor);
+	}
+
+	// Gets the connection ready within readyTimeoutMs and then waits at the gate, so that all cameras of a fan-out send
+	// at the same instant, or delayNanos after it. A camera that cannot get ready in time fails instead of holding up
+	// the others. With confirmFirst, the camera's status is checked while getting ready, and a camera that already is
+	// in the requested state is not sent the command. With the selector transport no thread has to wait, the request
+	// is submitted by the thread opening the gate.
+	CompletableFuture<CommandResult> setRecordingAsync(final boolean state, Executor executor, final Deadline deadline, final ReleaseGate gate, final long delayNanos,
+			final long readyTimeoutMs, final boolean confirmFirst) {
+		if (!_breaker.allowRequest()) {
+			// Skipped right away, without taking a sender thread
+			gate.arrive();
+			return failed(circuitOpen());
+		}
+		if (_transport != null && _isAuthenticated && !confirmFirst) {
+			final CompletableFuture<CommandResult> result = new CompletableFuture<CommandResult>();
+			gate.onRelease(delayNanos, new Runnable() {
+				@Override
+				public void run() {
+					withRetry(state, deadline, submit(JvcCommand.recording(state), recordingRequestBuilder(state), deadline)).whenComplete(new BiConsumer<CommandResult, Throwable>() {
+						@Override
+						public void accept(CommandResult r, Throwable error) {
+							if (error != null) {
+								result.completeExceptionally(error);
+							} else {
+								result.complete(r);
+							}
+						}
+					});
+				}
+			});
+			gate.arrive();
+			return result;
+		}
+		return runAsync(new Callable<CommandResult>() {
+			@Override
+			public CommandResult call() throws Exception {
+				Deadline readyDeadline = Deadline.after(Math.min(readyTimeoutMs, Math.max(0, deadline.remainingMillis())));
+				CommandResult confirmed = null;
+				long hedgeAfterNanos;
+				try {
+					hedgeAfterNanos = prepareRecording(readyDeadline);
+					if (confirmFirst) {
+						confirmed = confirmRecording(state, _connection, readyDeadline);
+					}
+				} catch (IOException e) {
+					gate.arrive();
+					throw e;
+				}
+				if (confirmed != null) {
+					gate.arrive();
+					return confirmed;
+				}
+				if (!gate.arriveAndAwait(deadline, delayNanos)) {
+					throw new SocketTimeoutException("Camera " + Camera.this.toString() + " was not released before the deadline, command not sent");
+				}
+				return sendRecording(state, deadline, hedgeAfterNanos);
+			}
+		}, executor);
+	}
+
+	// Arming always uses the blocking connection, also when a selector transport is attached
+	public void armRecording(boolean state) throws IOException {
+		checkBreaker();
 		if (!_isAuthenticated) connect();
+		_logger.debug("Arming command '{}' on camera {}...", JvcCommand.recording(state), this);
+		_connection.arm(recordingRequest(state), ARM_TAIL_LENGTH, Deadline.commandDefault());
+		_armedCommand = JvcCommand.recording(state);
+	}
 
-		_logger.debug("Sending command '" + cmd + "' to camera " + this.toString() + "...");
-		
-		URL url = new URL("http://" + _ipAddress + CMD_URL);
-		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
-		connection.setRequestMethod("POST");
-		
-		StringBuilder sb = new StringBuilder();
-		sb.append("{\"Request\": {");
-		sb.append("\"Command\":\"");
-		sb.append(cmd);
-		sb.append("\",");
-		sb.append("\"SessionID\":\"");
-		sb.append(_sessionId);
-		sb.append("\"");
-		if (params != null) {
-			sb.append(",");
-			sb.append("\"Params\":");
-			sb.append(params);
-		}
-		sb.append("}}");
-
-		connection.setDoOutput(true);
-		DataOutputStream out = new DataOutputStream(connection.getOutputStream());
-		out.writeBytes(sb.toString());
-		out.flush();
-		out.close();
-		
-		connection.connect();
+	public boolean isArmed() {
+		return _connection.isArmed();
+	}
+
+	public void fireArmed() throws IOException {
+		_connection.fire();
+	}
 
-		if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-			throw new IOException("Failed to execute command, HTTP status was " + connection.getResponseCode());
+	// A fired command that got no reply is retried like any other Rec, after checking the camera's status
+	public CommandResult awaitArmedResult(Deadline deadline) throws IOException {
+		HttpResponse response;
+		try {
+			response = _connection.readArmedResponse(deadline);
+		} catch (IOException e) {
+			if (!isTransportFailure(e)) {
+				throw e;
+			}
+			_breaker.recordFailure();
+			return retryRecording(_armedCommand == JvcCommand.REC_START, deadline, _retryPolicy, 1, e);
 		}
-		
-		BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-		String inputLine;
-		StringBuffer content = new StringBuffer();
-		while ((inputLine = in.readLine()) != null) {
-			content.append(inputLine);
+		return toCommandResult(_armedCommand, response);
+	}
+
+	public void disarm() {
+		_connection.disarm();
+	}
+
+	// Polls the camera and returns the new status snapshot, listeners are notified about changed fields
+	public CameraStatus getCamStatus() throws IOException {
+		CommandResult result = sendCmd(JvcCommand.GET_CAM_STATUS);
+		if (!result.isSuccess()) {
+			throw new IOException("Could not get status of camera " + this.toString() + ": " + result.getResult());
+		}
+		return updateStatus(result);
+	}
+
+	// Last polled status, null if the camera has not been polled yet
+	public CameraStatus getStatus() {
+		return _status;
+	}
+
+	public void addStatusListener(CameraStatusListener listener) {
+		_statusListeners.add(listener);
+	}
+
+	public void removeStatusListener(CameraStatusListener listener) {
+		_statusListeners.remove(listener);
+	}
+
+	public CompletableFuture<CommandResult> getCamStatusAsync() {
+		return sendCmdAsync(JvcCommand.GET_CAM_STATUS);
+	}
+
+	public CompletableFuture<CommandResult> sendCmdAsync(JvcCommand cmd) {
+		return sendCmdAsync(cmd, ASYNC_EXECUTOR, Deadline.commandDefault());
+	}
+
+	public CompletableFuture<CommandResult> sendCmdAsync(final JvcCommand cmd, Executor executor, final Deadline deadline) {
+		if (!_breaker.allowRequest()) {
+			return failed(circuitOpen());
+		}
+		if (_transport != null && _isAuthenticated) {
+			return submit(cmd, cmdRequestBuilder(cmd), deadline);
+		}
+		return runAsync(new Callable<CommandResult>() {
+			@Override
+			public CommandResult call() throws IOException {
+				return sendCmd(cmd, deadline);
+			}
+		}, executor);
+	}
+
+	public CommandResult sendCmd(JvcCommand cmd) throws IOException {
+		return sendCmd(cmd, Deadline.commandDefault());
+	}
+
+	public CommandResult sendCmd(JvcCommand cmd, Deadline deadline) throws IOException {
+		checkBreaker();
+		if (!_isAuthenticated) connect(deadline.socketTimeout());
+		return sendWithRecovery(cmd, cmdRequestBuilder(cmd), deadline);
+	}
+
+	public List<CommandResult> sendBatch(List<JvcCommand> cmds) throws IOException {
+		return sendBatch(cmds, Deadline.commandDefault());
+	}
+
+	// Sends the commands back-to-back on the keep-alive connection and returns their results in the same order,
+	// a multi-step macro then costs about one round trip instead of one per command. Batches always use the
+	// blocking connection, also when a selector transport is attached. If the camera closes the connection partway,
+	// a batch containing key events such as Rec fails instead of being sent again.
+	public List<CommandResult> sendBatch(List<JvcCommand> cmds, Deadline deadline) throws IOException {
+		if (cmds.isEmpty()) {
+			return Collections.emptyList();
+		}
+		checkBreaker();
+		if (!_isAuthenticated) connect(deadline.socketTimeout());
+		String sessionId = _sessionId;
+		List<CommandResult> results = sendBatchRequests(cmds, deadline);
+		if (!results.get(0).isSessionError()) {
+			return results;
+		}
+		// The session is checked for the first command already, so none of the batch has been executed
+		renewSession(sessionId, deadline);
+		results = sendBatchRequests(cmds, deadline);
+		if (results.get(0).isSessionError()) {
+			_isAuthenticated = false;
+			throw new AuthenticationException("Session of camera " + this.toString() + " was rejected again after logging in");
+		}
+		return results;
+	}
+
+	// Opens the connection ahead of the release, so that no camera has to connect after it. Returns the hedge threshold,
+	// which is also worked out here rather than after the release.
+	private long prepareRecording(Deadline deadline) throws IOException {
+		if (!_isAuthenticated) {
+			loginInBackground();
+			throw notLoggedIn();
+		}
+		try {
+			_connection.open(deadline);
+		} catch (IOException e) {
+			recordFailure(e);
+			throw e;
+		}
+		if (_retryPolicy.isHedging()) {
+			_hedgeConnection.open(deadline);
+		}
+		return hedgeThreshold(_retryPolicy);
+	}
+
+	// How long a Rec may be outstanding before it is hedged, 0 for no hedging
+	private long hedgeThreshold(RetryPolicy policy) {
+		return policy.isHedging() ? getRecordRoundTripPercentileNanos(HEDGE_PERCENTILE) : 0;
+	}
+
+	private CommandResult sendRecording(boolean state, Deadline deadline, long hedgeAfterNanos) throws IOException {
+		checkBreaker();
+		if (!_isAuthenticated) {
+			// Never log in on the trigger path, it would delay this camera against the others
+			loginInBackground();
+			throw notLoggedIn();
+		}
+		//return sendCmd(JvcCommand.setCamCtrl(state ? "Rec" : "Stop")) // Returns success, but does not seem to do anything
+		RetryPolicy policy = _retryPolicy;
+		try {
+			return sendRecordingOnce(state, deadline, hedgeAfterNanos);
+		} catch (AuthenticationException | NotLoggedInException | CircuitOpenException e) {
+			throw e;
+		} catch (IOException e) {
+			return retryRecording(state, deadline, policy, 1, e);
+		}
+	}
+
+	private CommandResult sendRecordingOnce(boolean state, Deadline deadline, long hedgeAfterNanos) throws IOException {
+		if (hedgeAfterNanos > 0) {
+			return sendRecordingHedged(state, deadline, hedgeAfterNanos);
+		}
+		return sendWithRecovery(JvcCommand.recording(state), recordingRequestBuilder(state), deadline);
+	}
+
+	// Repeats a record command that failed without a reply, starting with the given retry. The request may still have
+	// reached the camera, so the status is polled before every resend and a camera that already is in the requested
+	// state is not sent the command again.
+	private CommandResult retryRecording(boolean state, Deadline deadline, RetryPolicy policy, int retry, IOException failure) throws IOException {
+		JvcCommand cmd = JvcCommand.recording(state);
+		for (; retry < policy.getMaxAttempts(); retry++) {
+			long backoffNanos = policy.backoffNanos(retry);
+			if (deadline.remainingNanos() <= backoffNanos) {
+				break;
+			}
+			_logger.info(String.format("Command '%s' to camera %s failed (%s), retrying in %.1f ms", cmd, this, failure, backoffNanos / 1e6));
+			try {
+				TimeUnit.NANOSECONDS.sleep(backoffNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while retrying command", e);
+			}
+			try {
+				CommandResult confirmed = confirmRecording(state, _connection, deadline);
+				if (confirmed != null) {
+					return confirmed;
+				}
+				return sendRecordingOnce(state, deadline, hedgeThreshold(policy));
+			} catch (AuthenticationException | NotLoggedInException | CircuitOpenException e) {
+				throw e;
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		throw failure;
+	}
+
+	// Sends the command and, if it has not been answered after hedgeAfterNanos, a duplicate over the hedge connection.
+	// The duplicate is only sent if the status polled over that connection shows the first request has not taken
+	// effect. Whichever succeeds first is the result, a late first request is given up.
+	private CommandResult sendRecordingHedged(final boolean state, final Deadline deadline, long hedgeAfterNanos) throws IOException {
+		final AtomicBoolean claimed = new AtomicBoolean(false);
+		final CompletableFuture<CommandResult> hedge = new CompletableFuture<CommandResult>();
+		HEDGE_TIMER.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (!claimed.compareAndSet(false, true)) {
+					return;
+				}
+				// The first request still holds the connection
+				final long primary = _connection.getRunningExchange();
+				ASYNC_EXECUTOR.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							hedge.complete(hedgeRecording(state, deadline, primary));
+						} catch (Throwable e) {
+							hedge.completeExceptionally(e);
+						}
+					}
+				});
+			}
+		}, hedgeAfterNanos, TimeUnit.NANOSECONDS);
+		try {
+			CommandResult result = sendWithRecovery(JvcCommand.recording(state), recordingRequestBuilder(state), deadline);
+			claimed.set(true);
+			return result;
+		} catch (IOException e) {
+			if (claimed.compareAndSet(false, true)) {
+				// No duplicate was sent
+				throw e;
+			}
+			try {
+				// The hedge is bounded by the same deadline
+				CommandResult result = hedge.get();
+				if (result.isSuccess()) {
+					return result;
+				}
+			} catch (ExecutionException e2) {
+				e.addSuppressed(e2.getCause());
+			} catch (InterruptedException e2) {
+				Thread.currentThread().interrupt();
+			}
+			throw e;
+		}
+	}
+
+	private CommandResult hedgeRecording(boolean state, Deadline deadline, long primary) throws IOException {
+		JvcCommand cmd = JvcCommand.recording(state);
+		_logger.info("Command '" + cmd + "' to camera " + this.toString() + " was not answered within its p95 Rec round trip, hedging on a second connection");
+		CommandResult result = confirmRecording(state, _hedgeConnection, deadline);
+		if (result == null) {
+			result = toCommandResult(cmd, _hedgeConnection.execute(recordingRequest(state), false, deadline));
+		}
+		if (result.isSuccess()) {
+			// Nobody needs to wait for the reply to the first request any longer
+			_connection.cancel(primary);
+		}
+		return result;
+	}
+
+	// Polls the status over the given connection. Returns a successful result if the camera already is in the
+	// requested recording state, null if the command still has to be sent. Fails if the status does not tell.
+	private CommandResult confirmRecording(boolean state, CameraConnection connection, Deadline deadline) throws IOException {
+		CommandResult status = toCommandResult(JvcCommand.GET_CAM_STATUS, connection.execute(_encoder.encode(JvcCommand.GET_CAM_STATUS, _sessionId), true, deadline));
+		if (status.isSessionError()) {
+			throw new AuthenticationException("Session of camera " + this.toString() + " was rejected while checking its status");
+		}
+		if (!status.isSuccess()) {
+			throw new IOException("Could not get status of camera " + this.toString() + ": " + status.getResult());
+		}
+		CameraStatus camStatus = updateStatus(status);
+		JvcCommand cmd = JvcCommand.recording(state);
+		if (!camStatus.hasRecordingState()) {
+			// Neither confirmed nor safe to send again
+			throw new IOException("Camera " + this.toString() + " did not report whether it records (status "
+					+ camStatus.get(CameraStatus.Field.STATUS) + "), cannot tell whether '" + cmd + "' took effect");
+		}
+		if (camStatus.isRecording() != state) {
+			return null;
+		}
+		_logger.info("Camera " + this.toString() + " is already " + (state ? "recording" : "stopped") + ", not sending '" + cmd + "' again");
+		return CommandResult.confirmed(cmd.getName(), status);
+	}
+
+	// Selector transport sends that failed are retried off the I/O thread, over the blocking connection
+	private CompletableFuture<CommandResult> withRetry(final boolean state, final Deadline deadline, CompletableFuture<CommandResult> first) {
+		final RetryPolicy policy = _retryPolicy;
+		if (policy.getMaxAttempts() <= 1) {
+			return first;
+		}
+		return first.handle(new BiFunction<CommandResult, Throwable, CompletableFuture<CommandResult>>() {
+			@Override
+			public CompletableFuture<CommandResult> apply(CommandResult result, Throwable error) {
+				if (error == null) {
+					return CompletableFuture.completedFuture(result);
+				}
+				final Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+				if (!(cause instanceof IOException) || cause instanceof AuthenticationException || cause instanceof NotLoggedInException
+						|| cause instanceof CircuitOpenException) {
+					return failed(cause);
+				}
+				return runAsync(new Callable<CommandResult>() {
+					@Override
+					public CommandResult call() throws IOException {
+						return retryRecording(state, deadline, policy, 1, (IOException)cause);
+					}
+				}, ASYNC_EXECUTOR);
+			}
+		}).thenCompose(Function.<CompletableFuture<CommandResult>>identity());
+	}
+
+	// Logs in on a background thread unless a login is already in progress
+	public void loginInBackground() {
+		if (!_loginPending.compareAndSet(false, true)) {
+			return;
+		}
+		ASYNC_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (!_isAuthenticated) {
+						connect();
+					}
+				} catch (IOException e) {
+					_logger.warn("Could not log in to camera " + Camera.this.toString() + ": " + e.toString());
+				} finally {
+					_loginPending.set(false);
+				}
+			}
+		});
+	}
+
+	// Sends a cheap command when the camera has been idle, so that neither the session nor the
+	// keep-alive connection time out between takes
+	public void keepAlive(long idleMs) {
+		if (!_breaker.allowRequest()) {
+			// Left to probeIfDue()
+			return;
+		}
+		if (_connection.isArmed()) {
+			// The connection is reserved for fire(), a status request on it would fail
+			return;
+		}
+		if (!_isAuthenticated) {
+			loginInBackground();
+			return;
+		}
+		if (System.nanoTime() - _lastCommandNanos < idleMs * 1000000L) {
+			return;
+		}
+		getCamStatusAsync().whenComplete(new BiConsumer<CommandResult, Throwable>() {
+			@Override
+			public void accept(CommandResult result, Throwable error) {
+				if (error != null) {
+					_logger.debug("Keep-alive for camera " + Camera.this.toString() + " failed: " + error.toString());
+				} else if (result.isSessionError()) {
+					_logger.info("Session of camera " + Camera.this.toString() + " is no longer valid, logging in again");
+					_isAuthenticated = false;
+					loginInBackground();
+				} else if (result.isSuccess()) {
+					try {
+						updateStatus(result);
+					} catch (IOException e) {
+						_logger.debug("Could not parse status of camera " + Camera.this.toString() + ": " + e.toString());
+					}
+				}
+			}
+		});
+	}
+
+	// Checks in the background whether a camera with an open circuit breaker is reachable again, once the breaker's
+	// open interval has passed. Commands keep failing fast until the probe succeeds.
+	public void probeIfDue(final int timeoutMs) {
+		if (!_breaker.tryProbe()) {
+			return;
+		}
+		ASYNC_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				_logger.debug("Probing camera " + Camera.this.toString());
+				try {
+					if (!_isAuthenticated) {
+						connect(timeoutMs);
+					} else {
+						sendWithRecovery(JvcCommand.GET_CAM_STATUS, cmdRequestBuilder(JvcCommand.GET_CAM_STATUS), Deadline.after(timeoutMs));
+					}
+				} catch (AuthenticationException e) {
+					// The camera answered, the session is renewed by the keep-alive task
+					_breaker.recordSuccess();
+				} catch (IOException e) {
+					// Also a probe that could not tell puts the breaker back to OPEN, so that the camera is probed again
+					_breaker.recordFailure();
+				}
+			}
+		});
+	}
+
+	// Replaces the status snapshot and notifies the listeners only if a field changed
+	private CameraStatus updateStatus(CommandResult result) throws IOException {
+		CameraStatus status = CameraStatus.parse(result);
+		EnumSet<CameraStatus.Field> changed;
+		synchronized (_statusLock) {
+			changed = status.diff(_status);
+			_status = status;
+		}
+		if (!changed.isEmpty()) {
+			_logger.debug("Status of camera " + this.toString() + " changed: " + changed + " (" + status + ")");
+			for (CameraStatusListener listener : _statusListeners) {
+				listener.statusChanged(this, status, changed);
+			}
+		}
+		return status;
+	}
+
+	// Requests are rebuilt after a re-login, because they embed the session ID
+	private Callable<byte[]> cmdRequestBuilder(final JvcCommand cmd) {
+		return new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws IOException {
+				return _encoder.encode(cmd, _sessionId);
+			}
+		};
+	}
+
+	// Created once, so that sending Rec does not allocate a builder every time
+	private Callable<byte[]> recordingRequestBuilder(boolean state) {
+		return state ? _recStartRequestBuilder : _recStopRequestBuilder;
+	}
+
+	private Callable<byte[]> createRecordingRequestBuilder(final boolean state) {
+		return new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return recordingRequest(state);
+			}
+		};
+	}
+
+	private CommandResult sendWithRecovery(JvcCommand cmd, Callable<byte[]> requestBuilder, Deadline deadline) throws IOException {
+		String sessionId = _sessionId;
+		CommandResult result = sendRequest(cmd, build(requestBuilder), deadline);
+		if (result.isSessionError()) {
+			return recoverSession(cmd, requestBuilder, sessionId, deadline);
+		}
+		return result;
+	}
+
+	// Logs in again after the camera rejected the session (e.g. after a reboot) and replays the
+	// command once, as long as that is possible before the command's deadline
+	private CommandResult recoverSession(JvcCommand cmd, Callable<byte[]> requestBuilder, String staleSessionId, Deadline deadline) throws IOException {
+		renewSession(staleSessionId, deadline);
+		CommandResult result = sendRequest(cmd, build(requestBuilder), deadline);
+		if (result.isSessionError()) {
+			_isAuthenticated = false;
+			throw new AuthenticationException("Session of camera " + this.toString() + " was rejected again after logging in");
+		}
+		return result;
+	}
+
+	private void renewSession(String staleSessionId, Deadline deadline) throws IOException {
+		if (deadline.isExpired()) {
+			throw new AuthenticationException("Session of camera " + this.toString() + " expired, no time left to log in again");
+		}
+		_logger.info("Session of camera " + this.toString() + " expired, logging in again");
+		synchronized (this) {
+			// Another command may already have renewed the session in the meantime
+			if (!_isAuthenticated || _sessionId.equals(staleSessionId)) {
+				_isAuthenticated = false;
+				connect(deadline.socketTimeout());
+			}
+		}
+	}
+
+	private byte[] build(Callable<byte[]> requestBuilder) throws IOException {
+		try {
+			return requestBuilder.call();
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	private CommandResult sendRequest(JvcCommand cmd, byte[] request, Deadline deadline) throws IOException {
+		_logger.debug("Sending command '{}' to camera {}...", cmd, this);
+		_lastCommandNanos = System.nanoTime();
+		HttpResponse response;
+		try {
+			response = _connection.execute(request, cmd.isIdempotent(), deadline);
+		} catch (IOException e) {
+			recordFailure(e);
+			throw e;
+		}
+		return toCommandResult(cmd, response);
+	}
+
+	private List<CommandResult> sendBatchRequests(List<JvcCommand> cmds, Deadline deadline) throws IOException {
+		List<byte[]> requests = new ArrayList<byte[]>(cmds.size());
+		boolean resendable = true;
+		for (JvcCommand cmd : cmds) {
+			requests.add(_encoder.encode(cmd, _sessionId));
+			resendable &= cmd.isIdempotent();
+		}
+		_logger.debug("Sending {} commands {} to camera {}...", cmds.size(), cmds, this);
+		_lastCommandNanos = System.nanoTime();
+		List<HttpResponse> responses;
+		try {
+			responses = _connection.executeBatch(requests, resendable, deadline);
+		} catch (IOException e) {
+			recordFailure(e);
+			throw e;
+		}
+		List<CommandResult> results = new ArrayList<CommandResult>(cmds.size());
+		for (int i = 0; i < cmds.size(); i++) {
+			// Later responses of a pipelined batch waited for the earlier ones, only the first is a round trip sample
+			results.add(toCommandResult(cmds.get(i), responses.get(i), i == 0));
+		}
+		return results;
+	}
+
+	// Not logged in yet or no transport configured, run the blocking exchange on the executor
+	private CompletableFuture<CommandResult> runAsync(final Callable<CommandResult> exchange, Executor executor) {
+		return CompletableFuture.supplyAsync(new Supplier<CommandResult>() {
+			@Override
+			public CommandResult get() {
+				try {
+					return exchange.call();
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				}
+			}
+		}, executor);
+	}
+
+	private CompletableFuture<CommandResult> submit(final JvcCommand cmd, final Callable<byte[]> requestBuilder, final Deadline deadline) {
+		_logger.debug("Sending command '{}' to camera {}...", cmd, this);
+		_lastCommandNanos = System.nanoTime();
+		final String sessionId = _sessionId;
+		byte[] request;
+		try {
+			request = build(requestBuilder);
+		} catch (IOException e) {
+			return failed(e);
+		}
+		CompletableFuture<HttpResponse> response = _transport.submit(_endpoint, request, cmd.isIdempotent(), deadline);
+		response.whenComplete(new BiConsumer<HttpResponse, Throwable>() {
+			@Override
+			public void accept(HttpResponse r, Throwable error) {
+				if (error != null) {
+					recordFailure(error);
+				}
+			}
+		});
+		return response.thenCompose(new Function<HttpResponse, CompletionStage<CommandResult>>() {
+			@Override
+			public CompletionStage<CommandResult> apply(HttpResponse response) {
+				final CommandResult result;
+				try {
+					result = toCommandResult(cmd, response);
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+				if (!result.isSessionError()) {
+					return CompletableFuture.completedFuture(result);
+				}
+				// Recover off the I/O thread, so that the other cameras are not held up by the login
+				return runAsync(new Callable<CommandResult>() {
+					@Override
+					public CommandResult call() throws IOException {
+						return recoverSession(cmd, requestBuilder, sessionId, deadline);
+					}
+				}, ASYNC_EXECUTOR);
+			}
+		});
+	}
+
+	private static CompletableFuture<CommandResult> failed(Throwable error) {
+		CompletableFuture<CommandResult> failed = new CompletableFuture<CommandResult>();
+		failed.completeExceptionally(error);
+		return failed;
+	}
+
+	private void checkBreaker() throws CircuitOpenException {
+		if (!_breaker.allowRequest()) {
+			throw circuitOpen();
+		}
+	}
+
+	private CircuitOpenException circuitOpen() {
+		return new CircuitOpenException("Camera " + this.toString() + " is skipped after repeated failures (circuit breaker " + _breaker.getState() + ")");
+	}
+
+	// Only failures to reach the camera count against the circuit breaker: connection refused or unreachable, timeouts,
+	// resets and connections closed by the camera. Local errors, such as an armed connection, a cancelled exchange or
+	// a reply that could not be parsed, do not.
+	private void recordFailure(Throwable error) {
+		if (isTransportFailure(error)) {
+			_breaker.recordFailure();
+		}
+	}
+
+	private static boolean isTransportFailure(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		return error instanceof SocketException || error instanceof SocketTimeoutException || error instanceof EOFException;
+	}
+
+	// The Rec requests only depend on the session, so they are serialized once per login
+	private void setSessionId(String sessionId) throws IOException {
+		_sessionId = sessionId;
+		_recStartRequest = _encoder.encode(JvcCommand.REC_START, sessionId);
+		_recStopRequest = _encoder.encode(JvcCommand.REC_STOP, sessionId);
+	}
+
+	private byte[] recordingRequest(boolean state) {
+		return state ? _recStartRequest : _recStopRequest;
+	}
+
+	private CommandResult toCommandResult(JvcCommand cmd, HttpResponse response) throws IOException {
+		return toCommandResult(cmd, response, true);
+	}
+
+	private CommandResult toCommandResult(JvcCommand cmd, HttpResponse response, boolean rttSample) throws IOException {
+		// Any reply, even an error, shows that the camera is reachable
+		_breaker.recordSuccess();
+		if (response.getStatus() == HttpURLConnection.HTTP_UNAUTHORIZED || response.getStatus() == HttpURLConnection.HTTP_FORBIDDEN) {
+			CommandResult result = CommandResult.sessionError(cmd.getName(), response.getBody(), response.getBodyLength());
+			result.setTiming(response.getSentNanos(), response.getFirstByteNanos(), response.getCompleteNanos());
+			return result;
+		}
+		if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+			throw new IOException("Failed to execute command, HTTP status was " + response.getStatus());
 		}
-		in.close();
 		
 		_logger.debug("Sent successfully");
-		return content.toString();
+		CommandResult result = CommandResult.decode(cmd.getName(), response.getBody(), response.getBodyLength());
+		result.setTiming(response.getSentNanos(), response.getFirstByteNanos(), response.getCompleteNanos());
+		if (rttSample && response.getSentNanos() != 0 && response.getFirstByteNanos() != 0) {
+			_rtt.update(response.getFirstByteNanos() - response.getSentNanos());
+			if (cmd == JvcCommand.REC_START || cmd == JvcCommand.REC_STOP) {
+				_recRtt.update(response.getFirstByteNanos() - response.getSentNanos());
+			}
+		}
+		return result;
 	}
-	
+
 	@Override
 	public String toString() {
 		return _name + " (" + _ipAddress + ")";
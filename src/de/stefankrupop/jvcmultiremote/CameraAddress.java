@@ -0,0 +1,98 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Host and port of a camera with its resolved address pinned, so that connecting never waits for name resolution.
+// The address is only looked up by resolve(), which runs when the cameras are loaded and on the refresh schedule.
+class CameraAddress {
+	private static final int DEFAULT_PORT = 80;
+
+	private final String _host;
+	private final int _port;
+	private volatile InetSocketAddress _resolved;
+
+	private static final Logger _logger = LoggerFactory.getLogger(CameraAddress.class);
+
+	public CameraAddress(String address) throws IOException {
+		_host = parseHost(address);
+		_port = parsePort(address);
+	}
+
+	// Camera addresses may be given as "host" or "host:port"
+	static String parseHost(String address) {
+		int colon = address.lastIndexOf(':');
+		if (colon > 0 && address.indexOf(':') == colon) {
+			return address.substring(0, colon);
+		}
+		return address;
+	}
+
+	static int parsePort(String address) throws IOException {
+		int colon = address.lastIndexOf(':');
+		if (colon > 0 && address.indexOf(':') == colon) {
+			String port = address.substring(colon + 1);
+			try {
+				int value = Integer.parseInt(port);
+				if (value > 0 && value <= 65535) {
+					return value;
+				}
+			} catch (NumberFormatException e) {
+				// Reported below
+			}
+			throw new IOException("Invalid port '" + port + "' in address '" + address + "'");
+		}
+		return DEFAULT_PORT;
+	}
+
+	public String getHost() {
+		return _host;
+	}
+
+	public int getPort() {
+		return _port;
+	}
+
+	// True if the host is a name rather than an IP literal, i.e. its address can change
+	public boolean isHostname() {
+		InetSocketAddress resolved = _resolved;
+		return resolved == null || !_host.equals(resolved.getAddress().getHostAddress());
+	}
+
+	// Looks the host up and pins the result. A failed lookup keeps the previously pinned address.
+	public boolean resolve() {
+		try {
+			InetAddress address = InetAddress.getByName(_host);
+			InetSocketAddress previous = _resolved;
+			if (previous == null || !previous.getAddress().equals(address)) {
+				if (previous != null) {
+					_logger.info("Address of " + _host + " changed from " + previous.getAddress().getHostAddress() + " to " + address.getHostAddress());
+				}
+				_resolved = new InetSocketAddress(address, _port);
+			}
+			return true;
+		} catch (UnknownHostException e) {
+			if (_resolved != null) {
+				_logger.warn("Could not resolve " + _host + ", keeping " + _resolved.getAddress().getHostAddress());
+			} else {
+				_logger.error("Could not resolve " + _host + ": " + e.toString());
+			}
+			return false;
+		}
+	}
+
+	// Pinned address to connect to, or null if the host has never been resolved
+	public InetSocketAddress getResolved() {
+		return _resolved;
+	}
+
+	@Override
+	public String toString() {
+		return _host + ":" + _port;
+	}
+}
@@ -0,0 +1,382 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// A single persistent HTTP/1.1 keep-alive connection to a camera
+class CameraConnection {
+	private final CameraAddress _address;
+	private final SocketSettings _settings;
+	private final long _maxIdleNanos;
+	private final HttpResponseParser _parser;
+	private final byte[] _readBuffer;
+	private final ByteBuffer _readView;
+
+	private volatile Socket _socket;
+	private InputStream _in;
+	private OutputStream _out;
+	private long _lastUsedNanos;
+	private volatile byte[] _armedRequest;
+	private int _armedTailOffset;
+	private boolean _fired;
+	private long _firedNanos;
+	private final Object _exchangeLock = new Object();
+	private long _exchange;
+	private boolean _inExchange;
+	private boolean _cancelled;
+
+	private final Logger _logger = LoggerFactory.getLogger(CameraConnection.class);
+
+	public CameraConnection(CameraAddress address, SocketSettings settings, long maxIdleMs) {
+		_address = address;
+		_settings = settings;
+		_maxIdleNanos = maxIdleMs * 1000000L;
+		_parser = new HttpResponseParser();
+		_readBuffer = new byte[8192];
+		_readView = ByteBuffer.wrap(_readBuffer);
+		_readView.limit(0);
+	}
+
+	// Checks whether the connection can be reused for the next request without reconnecting
+	public synchronized boolean isAlive() {
+		if (_socket == null || _socket.isClosed() || !_socket.isConnected() || _socket.isInputShutdown() || _socket.isOutputShutdown()) {
+			return false;
+		}
+		if (System.nanoTime() - _lastUsedNanos > _maxIdleNanos) {
+			return false;
+		}
+		try {
+			// Data arriving on an idle connection means the camera is about to close it
+			return !_readView.hasRemaining() && _in.available() == 0;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// Makes sure a connection is established, so that the next request does not pay for the handshake
+	public synchronized void open(Deadline deadline) throws IOException {
+		if (!isAlive()) {
+			reconnect(deadline);
+		}
+	}
+
+	// Connect and read timeouts are derived from the deadline, a timed out connection is closed
+	// because the late reply would otherwise be taken as the answer to the next request. A request that fails on a
+	// stale keep-alive connection is sent again once if resendable. The camera may still have executed it, so commands
+	// that must not run twice are given resendable = false and the failure is left to the caller.
+	public synchronized HttpResponse execute(byte[] request, boolean resendable, Deadline deadline) throws IOException {
+		if (_armedRequest != null) {
+			throw new IOException("Connection is armed, fire or disarm it first");
+		}
+		beginExchange();
+		try {
+			boolean reused = isAlive();
+			if (!reused) {
+				reconnect(deadline);
+			}
+			try {
+				return exchange(request, deadline);
+			} catch (IOException e) {
+				close();
+				checkCancelled(e);
+				if (!resendable || !reused || _parser.hasStarted() || e instanceof SocketTimeoutException || deadline.isExpired()) {
+					throw e;
+				}
+				// The camera silently dropped the idle connection, retry once on a fresh one
+				_logger.debug("Keep-alive connection to " + _address.getHost() + " went stale (" + e.toString() + "), reconnecting");
+				reconnect(deadline);
+				try {
+					return exchange(request, deadline);
+				} catch (IOException e2) {
+					close();
+					checkCancelled(e2);
+					throw e2;
+				}
+			}
+		} finally {
+			endExchange();
+		}
+	}
+
+	// Id of the execute() call running right now, -1 if there is none. Can be called while the exchange holds the connection.
+	public long getRunningExchange() {
+		synchronized (_exchangeLock) {
+			return _inExchange ? _exchange : -1;
+		}
+	}
+
+	// Gives up the given exchange if it is still running, by closing its socket without waiting for the connection.
+	// The exchange then fails with an ExchangeCancelledException instead of being sent again. A later exchange is not
+	// affected. Used when the request has been answered over another connection.
+	public void cancel(long exchange) {
+		synchronized (_exchangeLock) {
+			if (!_inExchange || _exchange != exchange) {
+				return;
+			}
+			_cancelled = true;
+			Socket socket = _socket;
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// Ignore, connection is discarded anyway
+				}
+			}
+		}
+	}
+
+	private void beginExchange() {
+		synchronized (_exchangeLock) {
+			_exchange++;
+			_inExchange = true;
+			_cancelled = false;
+		}
+	}
+
+	private void endExchange() {
+		synchronized (_exchangeLock) {
+			_inExchange = false;
+		}
+	}
+
+	private void checkCancelled(IOException e) throws ExchangeCancelledException {
+		synchronized (_exchangeLock) {
+			if (_cancelled) {
+				throw new ExchangeCancelledException("Request to " + _address.getHost() + " was given up, it has been answered over another connection", e);
+			}
+		}
+	}
+
+	// Writes all requests back-to-back and reads the responses in order (HTTP pipelining), so that a batch costs
+	// about one round trip. Requests left unanswered because the camera closed the connection are sent again on
+	// a new one if resendable, a request whose response had already started is not. An unanswered request may
+	// still have been executed, so batches with commands that must not run twice are given resendable = false.
+	public synchronized List<HttpResponse> executeBatch(List<byte[]> requests, boolean resendable, Deadline deadline) throws IOException {
+		if (_armedRequest != null) {
+			throw new IOException("Connection is armed, fire or disarm it first");
+		}
+		List<HttpResponse> responses = new ArrayList<HttpResponse>(requests.size());
+		boolean retried = false;
+		while (responses.size() < requests.size()) {
+			int first = responses.size();
+			boolean reused = isAlive();
+			if (!reused) {
+				reconnect(deadline);
+			}
+			try {
+				// An expired deadline must fail before anything is sent, not after the camera has acted on it
+				_socket.setSoTimeout(deadline.socketTimeout());
+				long sentNanos = System.nanoTime();
+				writeAll(requests, first);
+				for (int i = first; i < requests.size() && _socket != null; i++) {
+					if (i > first) {
+						_parser.reset();
+					}
+					HttpResponse response = readResponse(deadline);
+					response.setSentNanos(sentNanos);
+					responses.add(response);
+					if (!response.isKeepAlive()) {
+						close();
+					}
+				}
+				if (_socket != null) {
+					_lastUsedNanos = System.nanoTime();
+				}
+			} catch (IOException e) {
+				close();
+				if (_parser.hasStarted() || e instanceof SocketTimeoutException || deadline.isExpired()) {
+					throw e;
+				}
+				if (!resendable) {
+					throw interruptedBatch(responses.size(), requests.size(), e);
+				}
+				if (responses.size() == first) {
+					// Nothing was answered on this connection, only a stale keep-alive connection is worth a retry
+					if (!reused || retried) {
+						throw e;
+					}
+					retried = true;
+				}
+				_logger.debug("Connection to " + _address.getHost() + " closed after " + responses.size() + " of " + requests.size() + " pipelined responses (" + e.toString() + "), reconnecting");
+				continue;
+			}
+			if (!resendable && responses.size() < requests.size()) {
+				// The camera announced the close, but may have received the remaining requests all the same
+				throw interruptedBatch(responses.size(), requests.size(), null);
+			}
+		}
+		return responses;
+	}
+
+	private IOException interruptedBatch(int answered, int total, IOException cause) {
+		return new IOException("Connection to " + _address.getHost() + " closed after " + answered + " of " + total
+				+ " pipelined responses, the remaining commands may or may not have been executed", cause);
+	}
+
+	// Writes everything but the last tailLength bytes of the request, the camera cannot act on it before fire()
+	public synchronized void arm(byte[] request, int tailLength, Deadline deadline) throws IOException {
+		if (_armedRequest != null) {
+			throw new IOException("Connection is already armed");
+		}
+		open(deadline);
+		_parser.reset();
+		int tailOffset = request.length - tailLength;
+		try {
+			_out.write(request, 0, tailOffset);
+			_out.flush();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		_armedRequest = request;
+		_armedTailOffset = tailOffset;
+		_fired = false;
+	}
+
+	// Does not wait for a running exchange
+	public boolean isArmed() {
+		return _armedRequest != null;
+	}
+
+	public synchronized void fire() throws IOException {
+		if (_armedRequest == null || _fired) {
+			throw new IOException("Connection is not armed");
+		}
+		_fired = true;
+		_firedNanos = System.nanoTime();
+		_out.write(_armedRequest, _armedTailOffset, _armedRequest.length - _armedTailOffset);
+		_out.flush();
+	}
+
+	// The armed request is never sent again here, a camera that dropped the connection may have acted on it
+	public synchronized HttpResponse readArmedResponse(Deadline deadline) throws IOException {
+		if (_armedRequest == null || !_fired) {
+			throw new IOException("Connection has not been fired");
+		}
+		_armedRequest = null;
+		try {
+			HttpResponse response = readResponse(deadline);
+			response.setSentNanos(_firedNanos);
+			if (response.isKeepAlive() && _socket != null) {
+				_lastUsedNanos = System.nanoTime();
+			} else {
+				close();
+			}
+			return response;
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	// A partially written request cannot be taken back, so the connection is discarded
+	public synchronized void disarm() {
+		if (_armedRequest != null) {
+			_armedRequest = null;
+			close();
+		}
+	}
+
+	public synchronized void close() {
+		if (_socket != null) {
+			try {
+				_socket.close();
+			} catch (IOException e) {
+				// Ignore, connection is discarded anyway
+			}
+		}
+		_socket = null;
+		_in = null;
+		_out = null;
+		_readView.clear().limit(0);
+	}
+
+	private void reconnect(Deadline deadline) throws IOException {
+		close();
+		InetSocketAddress address = _address.getResolved();
+		if (address == null) {
+			throw new IOException("Address of " + _address.getHost() + " has not been resolved");
+		}
+		Socket socket = _settings.createSocket();
+		try {
+			socket.connect(address, deadline.socketTimeout());
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		_socket = socket;
+		_in = socket.getInputStream();
+		_out = socket.getOutputStream();
+		_lastUsedNanos = System.nanoTime();
+		_logger.debug("Opened keep-alive connection to " + _address);
+	}
+
+	// Joins the requests, so that they leave in as few packets as possible
+	private void writeAll(List<byte[]> requests, int first) throws IOException {
+		int length = 0;
+		for (int i = first; i < requests.size(); i++) {
+			length += requests.get(i).length;
+		}
+		byte[] joined = new byte[length];
+		int offset = 0;
+		for (int i = first; i < requests.size(); i++) {
+			byte[] request = requests.get(i);
+			System.arraycopy(request, 0, joined, offset, request.length);
+			offset += request.length;
+		}
+		send(joined);
+	}
+
+	// Resets the parser only after the write, so that the request does not wait for it. A failed write resets it as well,
+	// a parser left over from the previous response would claim that the camera had started to answer.
+	private void send(byte[] data) throws IOException {
+		try {
+			_out.write(data);
+			_out.flush();
+		} finally {
+			_parser.reset();
+		}
+	}
+
+	private HttpResponse exchange(byte[] request, Deadline deadline) throws IOException {
+		// An expired deadline must fail before anything is sent, not after the camera has acted on it
+		_socket.setSoTimeout(deadline.socketTimeout());
+		long sentNanos = System.nanoTime();
+		send(request);
+		HttpResponse response = readResponse(deadline);
+		response.setSentNanos(sentNanos);
+		if (response.isKeepAlive() && _socket != null) {
+			_lastUsedNanos = System.nanoTime();
+		} else {
+			close();
+		}
+		return response;
+	}
+
+	private HttpResponse readResponse(Deadline deadline) throws IOException {
+		while (!_parser.isComplete()) {
+			if (!_readView.hasRemaining()) {
+				_socket.setSoTimeout(deadline.socketTimeout());
+				int n = _in.read(_readBuffer);
+				if (n < 0) {
+					_parser.endOfStream();
+					close();
+					break;
+				}
+				_readView.clear().limit(n);
+			}
+			_parser.feed(_readView);
+		}
+		return _parser.getResponse();
+	}
+}
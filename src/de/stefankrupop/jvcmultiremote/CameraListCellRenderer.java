@@ -0,0 +1,37 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.awt.Color;
+import java.awt.Component;
+
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JList;
+
+// Shows the last polled status next to every camera, and whether the camera is skipped by its circuit breaker
+class CameraListCellRenderer extends DefaultListCellRenderer {
+	private static final long serialVersionUID = 6094180546517462214L;
+
+	@Override
+	public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+		super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+		Camera cam = (Camera)value;
+		String text = cam.toString();
+		CircuitBreaker.State breaker = cam.getBreakerState();
+		CameraStatus status = cam.getStatus();
+		if (breaker == CircuitBreaker.State.OPEN) {
+			text += " - unreachable, skipped";
+		} else if (breaker == CircuitBreaker.State.HALF_OPEN) {
+			text += " - unreachable, checking...";
+		} else if (!cam.isAuthenticated()) {
+			text += " - not logged in";
+		} else if (status != null && status.get(CameraStatus.Field.STATUS) != null) {
+			text += " - " + status.get(CameraStatus.Field.STATUS);
+		}
+		setText(text);
+		if (breaker != CircuitBreaker.State.CLOSED && !isSelected) {
+			setForeground(Color.GRAY);
+		} else if (status != null && status.isRecording() && !isSelected) {
+			setForeground(Color.RED);
+		}
+		return this;
+	}
+}
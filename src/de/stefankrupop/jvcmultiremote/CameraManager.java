@@ -4,27 +4,62 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.net.URISyntaxException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.security.CodeSource;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class CameraManager {
 	private static final Path CAMERAS_FILENAME;
+	private static final long DEADLINE_GRACE_MS = 250;
+	private static final long SCHEDULE_PREPARE_NANOS = 1000000000;
+	private static final long BREAKER_CHECK_MS = 250;
 	
 	private final List<Camera> _cameras;
+	private final Map<String, List<Camera>> _groups;
 	private final ExecutorService _simultaneousExecutors;
+	private final int _fanOutThreads;
+	private final long _fireSpinNanos;
+	private final long _readyTimeoutMs;
+	private final Deque<FanOutStats> _fanOutHistory;
+	private final boolean _latencyCompensation;
+	private final long _maxCompensationNanos;
+	private final int _fanOutHistorySize;
+	private final ScheduledExecutorService _scheduler;
+	private final ReentrantLock _fanOutLock;
+	private NioTransport _transport;
+	private List<Camera> _armedCameras;
+	private ScheduledFuture<?> _disarmTimer;
 
 	private final Logger _logger = LoggerFactory.getLogger(CameraManager.class);
 	
@@ -50,14 +85,120 @@ public class CameraManager {
 	
 	public CameraManager() throws IOException {
 		_cameras = new ArrayList<Camera>();		
-		_simultaneousExecutors = Executors.newFixedThreadPool(5);
+		_groups = new LinkedHashMap<String, List<Camera>>();
+		_fanOutHistory = new ArrayDeque<FanOutStats>();
+		_fanOutLock = new ReentrantLock(true);
+		_fanOutHistorySize = Config.getPropertyInt("fanOutHistorySize", 1000);
+		_scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "camera-scheduler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
 		readCamerasFromFile();
+		RetryPolicy retryPolicy = RetryPolicy.fromConfig();
+		for (Camera c : _cameras) {
+			c.setRetryPolicy(retryPolicy);
+		}
+		_logger.info("Record commands: " + retryPolicy);
+		_fanOutThreads = Math.max(1, Math.min(_cameras.size(), Config.getPropertyInt("maxFanOutThreads", 64)));
+		_simultaneousExecutors = createFanOutExecutor(_fanOutThreads);
+		_fireSpinNanos = Config.getPropertyInt("fireSpinMicros", 0) * 1000L;
+		_readyTimeoutMs = Config.getPropertyInt("readyTimeoutMs", 250);
+		_latencyCompensation = Config.getPropertyBool("latencyCompensation", false);
+		_maxCompensationNanos = Config.getPropertyInt("maxCompensationMs", 50) * 1000000L;
+		if (_fireSpinNanos > 0 && Runtime.getRuntime().availableProcessors() < _fanOutThreads) {
+			_logger.warn("fireSpinMicros is set, but there are fewer processors than cameras, spinning senders will delay each other");
+		}
+		final long keepAliveMs = Config.getPropertyInt("sessionKeepAliveMs", 5000);
+		_scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				for (Camera c : _cameras) {
+					c.keepAlive(keepAliveMs);
+				}
+			}
+		}, keepAliveMs, keepAliveMs, TimeUnit.MILLISECONDS);
+		scheduleAddressRefresh(Config.getPropertyInt("addressRefreshMs", 60000));
+		final int probeTimeoutMs = Config.getPropertyInt("breakerProbeTimeoutMs", 1000);
+		_scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				for (Camera c : _cameras) {
+					c.probeIfDue(probeTimeoutMs);
+				}
+			}
+		}, BREAKER_CHECK_MS, BREAKER_CHECK_MS, TimeUnit.MILLISECONDS);
+		if (Config.getProperty("transport", "blocking").equalsIgnoreCase("nio")) {
+			_transport = new NioTransport(Config.getPropertyInt("keepAliveIdleMs", 10000));
+			for (Camera c : _cameras) {
+				c.setTransport(_transport);
+			}
+			_logger.info("Using selector-based transport for " + _cameras.size() + " cameras");
+		}
 	}
 	
+	// One thread per camera up to the cap, so that all selected cameras are commanded at the same time instead of
+	// in waves. The threads are started up front, because creating them on the trigger path would add skew.
+	private static ExecutorService createFanOutExecutor(int threads) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "camera-fanout-" + _count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.prestartAllCoreThreads();
+		return executor;
+	}
+
+	// Periodically re-resolves cameras given by host name in the background, keeping the last address if a lookup fails.
+	// Lookups run on a thread of their own, a slow name server must not hold up keep-alives or the disarm timer.
+	private void scheduleAddressRefresh(long refreshMs) {
+		if (refreshMs <= 0) {
+			return;
+		}
+		ScheduledExecutorService resolver = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "camera-resolver");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		resolver.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				for (Camera c : _cameras) {
+					if (c.hasHostname()) {
+						c.resolveAddress();
+					}
+				}
+			}
+		}, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+	}
+
 	public List<Camera> getCameras() {
 		return Collections.unmodifiableList(_cameras); 
 	}
 
+	// Group names in the order they first appear in cameras.txt
+	public Set<String> getGroups() {
+		return Collections.unmodifiableSet(_groups.keySet());
+	}
+
+	// Cameras of the group in cameras.txt order, looked up in the index built when the file was read. Empty if there
+	// is no such group.
+	public List<Camera> getCameras(String group) {
+		List<Camera> cams = _groups.get(group);
+		return (cams != null) ? cams : Collections.<Camera>emptyList();
+	}
+
 	private void readCamerasFromFile() throws IOException {
 		List<Camera> cams = new ArrayList<Camera>();
 
@@ -68,8 +209,15 @@ public class CameraManager {
 				if (!(line == null || line.trim().isEmpty()) && !line.startsWith("#") && !line.startsWith("//")) {
 					String parts[] = line.split(",");
 					if (parts.length >= 4) {
-						Camera cam = new Camera(parts[0], parts[1], parts[2], parts[3]);
-						cams.add(cam);
+						try {
+							SocketSettings settings = SocketSettings.parse(parts, 4);
+							Camera cam = new Camera(parts[0], parts[1], parts[2], parts[3], settings, parseGroups(parts, 4));
+							// Resolve now, so that name lookups never happen when a command is sent
+							cam.resolveAddress();
+							cams.add(cam);
+						} catch (IOException e) {
+							_logger.error("Invalid formatting in line " + lineNr + ": " + e.getMessage());
+						}
 					} else {
 						_logger.error("Invalid formatting in line " + lineNr + ": Expected four parts separated by comma");
 					}
@@ -78,45 +226,475 @@ public class CameraManager {
 			}
 			_cameras.clear();
 			_cameras.addAll(cams);
-			_logger.info("Initialized " + cams.size() + " cameras");
+			indexGroups(cams);
+			_logger.info("Initialized " + cams.size() + " cameras" + (_groups.isEmpty() ? "" : " in groups " + _groups.keySet()));
 		} catch (IOException e) {
 			throw new IOException("Could not read cameras file: " + e.toString());
 		}
 	}
 	
-	public void connectAllCameras() throws IOException {
-		for (Camera c : _cameras) {
-			try {
-				c.connect();
-			} catch (IOException e) {
-				throw new IOException("Failed to connect to camera " + c.toString() + ": " + e.toString(), e);
+	// Reads the optional groups=<group>|<group>... columns starting at index 'from', other key=value columns are skipped
+	private static Set<String> parseGroups(String[] parts, int from) {
+		Set<String> groups = new LinkedHashSet<String>();
+		for (int i = from; i < parts.length; i++) {
+			String part = parts[i].trim();
+			int eq = part.indexOf('=');
+			if (eq <= 0 || !part.substring(0, eq).trim().equalsIgnoreCase("groups")) {
+				continue;
+			}
+			for (String group : part.substring(eq + 1).split("\\|")) {
+				if (!group.trim().isEmpty()) {
+					groups.add(group.trim());
+				}
 			}
 		}
+		return groups;
+	}
+
+	// Builds the group index once, so that commands to a group never have to filter the whole list of cameras
+	private void indexGroups(List<Camera> cams) {
+		Map<String, List<Camera>> groups = new LinkedHashMap<String, List<Camera>>();
+		for (Camera c : cams) {
+			for (String group : c.getGroups()) {
+				List<Camera> members = groups.get(group);
+				if (members == null) {
+					members = new ArrayList<Camera>();
+					groups.put(group, members);
+				}
+				members.add(c);
+			}
+		}
+		_groups.clear();
+		for (Map.Entry<String, List<Camera>> e : groups.entrySet()) {
+			_groups.put(e.getKey(), Collections.unmodifiableList(e.getValue()));
+		}
+	}
+
+	// Logs in to all cameras in parallel, at most maxParallelLogins at a time. A camera that fails does not hold up
+	// the others and is logged in again in the background by the keep-alive task. All cameras reported as OK are
+	// ready to use.
+	public FleetResult connectAllCameras() throws IOException {
+		int threads = Math.max(1, Math.min(_cameras.size(), Config.getPropertyInt("maxParallelLogins", 8)));
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "camera-login-" + _count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		List<FleetResult.Outcome> outcomes = new ArrayList<FleetResult.Outcome>(_cameras.size());
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(_cameras.size());
+			for (final Camera c : _cameras) {
+				results.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws IOException {
+						return c.connect();
+					}
+				}));
+			}
+			for (int i = 0; i < _cameras.size(); i++) {
+				Camera c = _cameras.get(i);
+				try {
+					if (results.get(i).get()) {
+						outcomes.add(new FleetResult.Outcome(c, FleetResult.Status.OK, null, null));
+					} else {
+						outcomes.add(new FleetResult.Outcome(c, FleetResult.Status.AUTH_ERROR, null,
+								new AuthenticationException("Camera does not offer a supported authentication method")));
+					}
+				} catch (ExecutionException e) {
+					outcomes.add(new FleetResult.Outcome(c, statusOf(e.getCause()), null, e.getCause()));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while connecting to cameras", e);
+		} finally {
+			executor.shutdownNow();
+		}
+		FleetResult result = new FleetResult("Login", outcomes, null);
+		if (result.isSuccess()) {
+			_logger.info(result.toString());
+		} else {
+			_logger.warn(result.toString());
+		}
+		return result;
 	}
 	
-	public void setRecordingSimultaneous(List<Camera> cams, boolean state) throws IOException {
-		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(cams.size());
+	public FleetResult setRecordingSimultaneous(List<Camera> cams, boolean state) throws IOException {
+		return setRecordingSimultaneous(cams, state, Config.getPropertyInt("commandTimeoutMs", 2000));
+	}
+
+	// All cameras share one deadline, which becomes their connect and read timeouts. The senders first get their
+	// connections ready and are then released together, so that thread start-up order does not become skew. Getting
+	// ready is bounded by readyTimeoutMs, a camera that is not ready by then fails and the others are released.
+	public FleetResult setRecordingSimultaneous(List<Camera> cams, boolean state, long timeoutMs) throws IOException {
+		return setRecordingSimultaneous(cams, new boolean[cams.size()], state, timeoutMs);
+	}
+
+	// Sends the command again to the cameras that failed. Cameras that did not answer may have acted on it all the
+	// same, so their status is checked first and they are only sent the command if they are not in that state yet.
+	public FleetResult retryRecording(FleetResult failed, boolean state) throws IOException {
+		List<FleetResult.Outcome> failures = failed.getFailures();
+		List<Camera> cams = new ArrayList<Camera>(failures.size());
+		boolean[] confirmFirst = new boolean[failures.size()];
+		for (int i = 0; i < failures.size(); i++) {
+			cams.add(failures.get(i).getCamera());
+			confirmFirst[i] = failures.get(i).isUncertain();
+		}
+		return setRecordingSimultaneous(cams, confirmFirst, state, Config.getPropertyInt("commandTimeoutMs", 2000));
+	}
+
+	private FleetResult setRecordingSimultaneous(List<Camera> cams, boolean[] confirmFirst, boolean state, long timeoutMs) throws IOException {
+		Deadline deadline = Deadline.after(timeoutMs);
+		lockFanOut(deadline);
+		try {
+			ReleaseGate gate = new ReleaseGate(Math.min(cams.size(), _fanOutThreads));
+			long[] delays = compensationDelays(cams);
+			List<CompletableFuture<CommandResult>> results;
+			try {
+				long readyMs = Math.min(_readyTimeoutMs, timeoutMs);
+				results = prepareRecording(cams, confirmFirst, state, delays, deadline, gate, Deadline.after(readyMs), readyMs);
+			} finally {
+				gate.release(_fireSpinNanos);
+			}
+			return collectResults(JvcCommand.recording(state).toString(), cams, results, deadline, delays);
+		} finally {
+			_fanOutLock.unlock();
+		}
+	}
+
+	// Fan-outs share the sender threads, and a gate waiting for threads held by another fan-out would never fill.
+	// Fan-outs therefore run one after the other, one that cannot start before the deadline fails.
+	private void lockFanOut(Deadline deadline) throws IOException {
+		try {
+			if (!_fanOutLock.tryLock(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS)) {
+				throw new SocketTimeoutException("Another record/stop command is still in progress");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for another record/stop command", e);
+		}
+	}
+
+	// Starts or stops recording on all cameras of the group at the same time
+	public FleetResult setRecording(String group, boolean state) throws IOException {
+		List<Camera> cams = _groups.get(group);
+		if (cams == null) {
+			throw new IOException("Unknown camera group '" + group + "'");
+		}
+		return setRecordingSimultaneous(cams, state);
+	}
+
+	public FireReport scheduleRecording(List<Camera> cams, boolean state, long delayMs) throws IOException {
+		return scheduleRecording(cams, state, Instant.now().plusMillis(delayMs));
+	}
+
+	// Starts or stops recording on all cameras at the given wall-clock instant and blocks until they answered.
+	// The cameras get ready a moment before, then this thread sleeps until shortly before the instant and spins
+	// for the rest, so that the commands go out as precisely as possible.
+	public FireReport scheduleRecording(List<Camera> cams, boolean state, Instant at) throws IOException {
+		long delayNanos = Duration.between(Instant.now(), at).toNanos();
+		if (delayNanos < 0) {
+			throw new IOException("Scheduled instant " + at + " has already passed");
+		}
+		long targetNanos = System.nanoTime() + delayNanos;
+		// Prepare the cameras only shortly before the instant, so that their connections do not go idle in the meantime
+		waitUntil(targetNanos - SCHEDULE_PREPARE_NANOS);
+		long remainingMs = Math.max(0, (targetNanos - System.nanoTime()) / 1000000L);
+		Deadline readyDeadline = Deadline.after(remainingMs);
+		Deadline deadline = Deadline.after(remainingMs + Config.getPropertyInt("commandTimeoutMs", 2000));
+		lockFanOut(readyDeadline);
+		try {
+			ReleaseGate gate = new ReleaseGate(Math.min(cams.size(), _fanOutThreads));
+			long[] delays = compensationDelays(cams);
+			List<CompletableFuture<CommandResult>> results;
+			try {
+				results = prepareRecording(cams, new boolean[cams.size()], state, delays, deadline, gate, readyDeadline, remainingMs);
+				_logger.info("Cameras ready, " + (state ? "starting" : "stopping") + " recording at " + at);
+				waitUntil(targetNanos - _fireSpinNanos);
+			} finally {
+				gate.releaseAt(targetNanos);
+			}
+
+			List<FireReport.Entry> entries = new ArrayList<FireReport.Entry>(cams.size());
+			for (int i = 0; i < cams.size(); i++) {
+				try {
+					CommandResult result = results.get(i).get(Math.max(0, deadline.remainingMillis()) + DEADLINE_GRACE_MS, TimeUnit.MILLISECONDS);
+					long offsetNanos = (result.getSentNanos() != 0) ? result.getSentNanos() - targetNanos : 0;
+					entries.add(new FireReport.Entry(cams.get(i), statusOf(result), result, null, offsetNanos, delays[i]));
+				} catch (TimeoutException e) {
+					entries.add(new FireReport.Entry(cams.get(i), FleetResult.Status.TIMED_OUT, null, new SocketTimeoutException("No answer in time"), 0, delays[i]));
+				} catch (ExecutionException e) {
+					entries.add(new FireReport.Entry(cams.get(i), statusOf(e.getCause()), null, e.getCause(), 0, delays[i]));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for cameras", e);
+				}
+			}
+			recordFanOut(JvcCommand.recording(state).toString(), cams, results, delays);
+			FireReport report = new FireReport(at, entries);
+			_logger.info(report.toString());
+			return report;
+		} finally {
+			_fanOutLock.unlock();
+		}
+	}
+
+	// Hands the command to all cameras and waits until they are ready to send or readyDeadline has passed. Every camera
+	// has readyTimeoutMs from the start of its sender to get ready. The caller has to release the gate in any case.
+	private List<CompletableFuture<CommandResult>> prepareRecording(List<Camera> cams, boolean[] confirmFirst, boolean state, long[] delays, Deadline deadline,
+			ReleaseGate gate, Deadline readyDeadline, long readyTimeoutMs) throws IOException {
+		List<CompletableFuture<CommandResult>> results = new ArrayList<CompletableFuture<CommandResult>>(cams.size());
+		for (int i = 0; i < cams.size(); i++) {
+			results.add(cams.get(i).setRecordingAsync(state, _simultaneousExecutors, deadline, gate, delays[i], readyTimeoutMs, confirmFirst[i]));
+		}
+		try {
+			if (!gate.awaitReady(readyDeadline)) {
+				_logger.warn("Not all cameras got ready in time, releasing the others");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while preparing cameras", e);
+		}
+		return results;
+	}
+
+	private static void waitUntil(long targetNanos) throws IOException {
+		try {
+			ReleaseGate.waitUntil(targetNanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the scheduled instant", e);
+		}
+	}
+
+	// With latencyCompensation enabled, cameras with a shorter round trip are sent the command later, so that it is
+	// expected to arrive at all cameras at the same time. The one-way delay is taken as half the estimated round trip,
+	// cameras without an estimate are not delayed.
+	private long[] compensationDelays(List<Camera> cams) {
+		long[] delays = new long[cams.size()];
+		if (!_latencyCompensation) {
+			return delays;
+		}
+		long maxOneWay = 0;
 		for (Camera c : cams) {
-			tasks.add(new Callable<Boolean>() {
+			maxOneWay = Math.max(maxOneWay, c.getRoundTripEstimateNanos() / 2);
+		}
+		for (int i = 0; i < cams.size(); i++) {
+			long oneWay = cams.get(i).getRoundTripEstimateNanos() / 2;
+			if (oneWay > 0) {
+				delays[i] = Math.min(_maxCompensationNanos, maxOneWay - oneWay);
+			}
+		}
+		return delays;
+	}
+
+	// Collects the timestamps of all cameras that answered and keeps the statistics, so that skew can be followed over time
+	private FanOutStats recordFanOut(String command, List<Camera> cams, List<? extends Future<CommandResult>> results, long[] delays) {
+		List<FanOutStats.Sample> samples = new ArrayList<FanOutStats.Sample>(cams.size());
+		for (int i = 0; i < cams.size(); i++) {
+			Future<CommandResult> f = results.get(i);
+			if (!f.isDone() || f.isCancelled()) {
+				continue;
+			}
+			try {
+				CommandResult result = f.get();
+				if (result.getSentNanos() != 0 && result.getCompleteNanos() != 0) {
+					samples.add(new FanOutStats.Sample(cams.get(i).getName(), result.getSentNanos(), result.getFirstByteNanos(), result.getCompleteNanos(),
+							delays[i], cams.get(i).getRoundTripEstimateNanos() / 2));
+				}
+			} catch (ExecutionException | InterruptedException e) {
+				// Failed cameras have no timing, they are reported by collectResults
+			}
+		}
+		FanOutStats stats = new FanOutStats(command, cams.size(), samples);
+		_logger.info(stats.toString());
+		synchronized (_fanOutHistory) {
+			_fanOutHistory.addLast(stats);
+			while (_fanOutHistory.size() > _fanOutHistorySize) {
+				_fanOutHistory.removeFirst();
+			}
+		}
+		return stats;
+	}
+
+	// Statistics of the most recent fan-outs, oldest first, at most fanOutHistorySize entries
+	public List<FanOutStats> getFanOutHistory() {
+		synchronized (_fanOutHistory) {
+			return new ArrayList<FanOutStats>(_fanOutHistory);
+		}
+	}
+
+	// Waits for every camera until the deadline and classifies its outcome, a failing camera does not keep the
+	// others from being read
+	private FleetResult collectResults(String command, List<Camera> cams, List<? extends Future<CommandResult>> results, Deadline deadline, long[] delays) throws IOException {
+		List<FleetResult.Outcome> outcomes = new ArrayList<FleetResult.Outcome>(cams.size());
+		for (int i = 0; i < cams.size(); i++) {
+			Camera c = cams.get(i);
+			try {
+				CommandResult result;
+				if (deadline.isBounded()) {
+					result = results.get(i).get(Math.max(0, deadline.remainingMillis()) + DEADLINE_GRACE_MS, TimeUnit.MILLISECONDS);
+				} else {
+					result = results.get(i).get();
+				}
+				outcomes.add(new FleetResult.Outcome(c, statusOf(result), result, null));
+			} catch (TimeoutException e) {
+				outcomes.add(new FleetResult.Outcome(c, FleetResult.Status.TIMED_OUT, null, new SocketTimeoutException("No answer in time")));
+			} catch (ExecutionException e) {
+				outcomes.add(new FleetResult.Outcome(c, statusOf(e.getCause()), null, e.getCause()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for cameras", e);
+			}
+		}
+		FleetResult result = new FleetResult(command, outcomes, recordFanOut(command, cams, results, delays));
+		if (!result.isSuccess()) {
+			_logger.warn(result.toString());
+		}
+		return result;
+	}
+
+	private static FleetResult.Status statusOf(CommandResult result) {
+		if (result.isSuccess()) {
+			return FleetResult.Status.OK;
+		}
+		return result.isSessionError() ? FleetResult.Status.AUTH_ERROR : FleetResult.Status.FAILED;
+	}
+
+	// A camera that is not logged in is classified by why its last login failed, AUTH_ERROR only for rejected credentials
+	private static FleetResult.Status statusOf(Throwable error) {
+		if (error instanceof NotLoggedInException) {
+			return (error.getCause() != null) ? statusOf(error.getCause()) : FleetResult.Status.FAILED;
+		} else if (error instanceof SocketTimeoutException) {
+			return FleetResult.Status.TIMED_OUT;
+		} else if (error instanceof AuthenticationException) {
+			return FleetResult.Status.AUTH_ERROR;
+		} else if (error instanceof CircuitOpenException) {
+			return FleetResult.Status.SKIPPED;
+		}
+		return FleetResult.Status.FAILED;
+	}
+
+	public void arm(List<Camera> cams, boolean state) throws IOException {
+		arm(cams, state, Config.getPropertyInt("armTimeoutMs", 5000));
+	}
+
+	// Prepares the record command on all cameras up to the last byte, so that fire() only has
+	// to send a single byte to each camera. Disarms automatically if not fired within the timeout.
+	public void arm(List<Camera> cams, final boolean state, long timeoutMs) throws IOException {
+		disarm();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(cams.size());
+		for (final Camera c : cams) {
+			tasks.add(new Callable<Void>() {
 				@Override
-				public Boolean call() throws IOException {
-					return c.setRecording(state);
+				public Void call() throws IOException {
+					c.armRecording(state);
+					return null;
 				}
 			});
 		}
+		List<Camera> armed = new ArrayList<Camera>(cams);
 		try {
-			List<Future<Boolean>> results = _simultaneousExecutors.invokeAll(tasks);
-			for (Future<Boolean> f : results) {
+			List<Future<Void>> results = _simultaneousExecutors.invokeAll(tasks);
+			for (int i = 0; i < results.size(); i++) {
 				try {
-					if (!f.get()) {
-						throw new IOException("Command failed on at least one camera");
-					}
+					results.get(i).get();
 				} catch (ExecutionException e) {
-					throw new IOException("Could not execute command: " + e.toString(), e);
+					for (Camera c : armed) {
+						c.disarm();
+					}
+					throw new IOException("Could not arm camera " + cams.get(i).toString() + ": " + e.getCause().toString(), e.getCause());
 				}
 			}
 		} catch (InterruptedException e) {
+			for (Camera c : armed) {
+				c.disarm();
+			}
+			throw new IOException("Interrupted while arming cameras", e);
+		}
+		synchronized (this) {
+			_armedCameras = armed;
+			_disarmTimer = _scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					_logger.warn("Cameras were not fired within " + timeoutMs + " ms, disarming");
+					disarm();
+				}
+			}, timeoutMs, TimeUnit.MILLISECONDS);
 		}
+		_logger.info("Armed " + armed.size() + " cameras");
+	}
+
+	public synchronized boolean isArmed() {
+		return _armedCameras != null;
+	}
+
+	public FleetResult fire() throws IOException {
+		return fire(Config.getPropertyInt("commandTimeoutMs", 2000));
 	}
-}
 
+	public FleetResult fire(long timeoutMs) throws IOException {
+		final Deadline deadline = Deadline.after(timeoutMs);
+		List<Camera> cams;
+		synchronized (this) {
+			if (_armedCameras == null) {
+				throw new IOException("No cameras are armed");
+			}
+			cams = _armedCameras;
+			_armedCameras = null;
+			_disarmTimer.cancel(false);
+		}
+
+		// Send the final bytes to all cameras back-to-back from this thread, then collect the replies
+		List<IOException> fireErrors = new ArrayList<IOException>(cams.size());
+		for (Camera c : cams) {
+			try {
+				c.fireArmed();
+				fireErrors.add(null);
+			} catch (IOException e) {
+				fireErrors.add(e);
+			}
+		}
+		List<Future<CommandResult>> results = new ArrayList<Future<CommandResult>>(cams.size());
+		for (int i = 0; i < cams.size(); i++) {
+			final Camera c = cams.get(i);
+			if (fireErrors.get(i) != null) {
+				c.disarm();
+				CompletableFuture<CommandResult> failed = new CompletableFuture<CommandResult>();
+				failed.completeExceptionally(fireErrors.get(i));
+				results.add(failed);
+				continue;
+			}
+			results.add(_simultaneousExecutors.submit(new Callable<CommandResult>() {
+				@Override
+				public CommandResult call() throws IOException {
+					return c.awaitArmedResult(deadline);
+				}
+			}));
+		}
+		return collectResults("Fire armed", cams, results, deadline, new long[cams.size()]);
+	}
+
+	public void disarm() {
+		List<Camera> cams;
+		synchronized (this) {
+			cams = _armedCameras;
+			_armedCameras = null;
+			if (_disarmTimer != null) {
+				_disarmTimer.cancel(false);
+				_disarmTimer = null;
+			}
+		}
+		if (cams != null) {
+			for (Camera c : cams) {
+				c.disarm();
+			}
+			_logger.info("Disarmed " + cams.size() + " cameras");
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+// Immutable snapshot of the Data of a GetCamStatus reply:
+// {"Camera":{"Mode":"Camera","Status":"Rec","TC":"00:00:00:00"},"Battery":{"Info":"Percent","Level":"80"},"Media":{"Slot":"A","RemainTime":"120"}}
+public final class CameraStatus {
+	public enum Field { MODE, STATUS, TIMECODE, BATTERY_INFO, BATTERY_LEVEL, MEDIA_SLOT, MEDIA_REMAINING }
+
+	private static final Field[] FIELDS = Field.values();
+
+	// Indexed by Field.ordinal(), null if the camera did not report the field
+	private final String[] _values;
+	private final long _timestampNanos;
+
+	private CameraStatus(String[] values, long timestampNanos) {
+		_values = values;
+		_timestampNanos = timestampNanos;
+	}
+
+	public static CameraStatus parse(CommandResult result) throws IOException {
+		String[] values = new String[FIELDS.length];
+		if (result.hasData()) {
+			JsonReader reader = result.getDataReader();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String group = reader.nextName();
+				if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+					reader.skipValue();
+					continue;
+				}
+				reader.beginObject();
+				while (reader.hasNext()) {
+					Field field = field(group, reader.nextName());
+					if (field != null && reader.peek() != JsonReader.Token.BEGIN_OBJECT && reader.peek() != JsonReader.Token.BEGIN_ARRAY) {
+						values[field.ordinal()] = reader.nextString();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+			}
+			reader.endObject();
+		}
+		return new CameraStatus(values, System.nanoTime());
+	}
+
+	private static Field field(String group, String name) {
+		switch (group) {
+			case "Camera":
+				switch (name) {
+					case "Mode": return Field.MODE;
+					case "Status": return Field.STATUS;
+					case "TC": return Field.TIMECODE;
+					default: return null;
+				}
+			case "Battery":
+				switch (name) {
+					case "Info": return Field.BATTERY_INFO;
+					case "Level": return Field.BATTERY_LEVEL;
+					default: return null;
+				}
+			case "Media":
+				switch (name) {
+					case "Slot": return Field.MEDIA_SLOT;
+					case "RemainTime": return Field.MEDIA_REMAINING;
+					default: return null;
+				}
+			default:
+				return null;
+		}
+	}
+
+	// Fields whose value differs from the previous snapshot, all reported fields if there is none
+	public EnumSet<Field> diff(CameraStatus previous) {
+		EnumSet<Field> changed = EnumSet.noneOf(Field.class);
+		for (Field field : FIELDS) {
+			String value = _values[field.ordinal()];
+			if (previous == null) {
+				if (value != null) {
+					changed.add(field);
+				}
+			} else if (value == null ? previous._values[field.ordinal()] != null : !value.equals(previous._values[field.ordinal()])) {
+				changed.add(field);
+			}
+		}
+		return changed;
+	}
+
+	// Value as reported by the camera, or null if it was not part of the reply
+	public String get(Field field) {
+		return _values[field.ordinal()];
+	}
+
+	public boolean isRecording() {
+		return "Rec".equalsIgnoreCase(_values[Field.STATUS.ordinal()]);
+	}
+
+	// True if the reported status tells whether the camera records, i.e. it is Rec or standby. A missing or unknown
+	// status says neither.
+	public boolean hasRecordingState() {
+		String status = _values[Field.STATUS.ordinal()];
+		return "Rec".equalsIgnoreCase(status) || "Stby".equalsIgnoreCase(status) || "Standby".equalsIgnoreCase(status);
+	}
+
+	public String getTimecode() {
+		return _values[Field.TIMECODE.ordinal()];
+	}
+
+	// Remaining battery as reported, the unit is given by BATTERY_INFO (e.g. "Percent" or "Time"). -1 if unknown.
+	public int getBatteryLevel() {
+		return parseInt(_values[Field.BATTERY_LEVEL.ordinal()]);
+	}
+
+	// Remaining recording time on the active media in minutes, -1 if unknown
+	public int getMediaRemaining() {
+		return parseInt(_values[Field.MEDIA_REMAINING.ordinal()]);
+	}
+
+	public long getTimestampNanos() {
+		return _timestampNanos;
+	}
+
+	private static int parseInt(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Field field : FIELDS) {
+			if (_values[field.ordinal()] != null) {
+				if (sb.length() > 0) {
+					sb.append(", ");
+				}
+				sb.append(field).append('=').append(_values[field.ordinal()]);
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof CameraStatus && Arrays.equals(_values, ((CameraStatus)o)._values);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(_values);
+	}
+}
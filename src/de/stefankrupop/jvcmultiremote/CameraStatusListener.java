@@ -0,0 +1,8 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.util.EnumSet;
+
+public interface CameraStatusListener {
+	// Called on the thread that received the status, only when at least one field changed
+	void statusChanged(Camera camera, CameraStatus status, EnumSet<CameraStatus.Field> changed);
+}
@@ -0,0 +1,65 @@
+package de.stefankrupop.jvcmultiremote;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Stops commanding a camera after repeated failures without a reply, so that an unplugged camera does not hold up
+// every fan-out until its timeout. While OPEN, commands fail right away. Once openMs have passed the breaker is
+// HALF_OPEN until a background probe either reaches the camera (CLOSED) or not (OPEN again). Any reply from the
+// camera closes the breaker.
+public class CircuitBreaker {
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final String _name;
+	private final int _failureThreshold;
+	private final long _openNanos;
+	private State _state;
+	private int _failures;
+	private long _openedNanos;
+
+	private final Logger _logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	// A failureThreshold of 0 never opens the breaker
+	public CircuitBreaker(String name, int failureThreshold, long openMs) {
+		_name = name;
+		_failureThreshold = failureThreshold;
+		_openNanos = openMs * 1000000L;
+		_state = State.CLOSED;
+	}
+
+	public synchronized State getState() {
+		return _state;
+	}
+
+	public synchronized boolean allowRequest() {
+		return _state == State.CLOSED;
+	}
+
+	public synchronized void recordSuccess() {
+		_failures = 0;
+		if (_state != State.CLOSED) {
+			_logger.info("Camera " + _name + " is reachable again, closing its circuit breaker");
+			_state = State.CLOSED;
+		}
+	}
+
+	public synchronized void recordFailure() {
+		_failures++;
+		if (_state == State.HALF_OPEN || (_state == State.CLOSED && _failureThreshold > 0 && _failures >= _failureThreshold)) {
+			if (_state == State.CLOSED) {
+				_logger.warn("Camera " + _name + " failed " + _failures + " times in a row, skipping it until it is reachable again");
+			}
+			_state = State.OPEN;
+			_openedNanos = System.nanoTime();
+		}
+	}
+
+	// Moves an OPEN breaker to HALF_OPEN once openMs have passed, the caller then has to probe the camera
+	public synchronized boolean tryProbe() {
+		if (_state != State.OPEN || System.nanoTime() - _openedNanos < _openNanos) {
+			return false;
+		}
+		_state = State.HALF_OPEN;
+		return true;
+	}
+}
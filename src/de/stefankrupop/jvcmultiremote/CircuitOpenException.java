@@ -0,0 +1,12 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+
+// The command was not sent, because the camera's circuit breaker is open after repeated failures
+public class CircuitOpenException extends IOException {
+	private static final long serialVersionUID = -2290148370262536193L;
+
+	public CircuitOpenException(String message) {
+		super(message);
+	}
+}
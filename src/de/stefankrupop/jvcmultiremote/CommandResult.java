@@ -0,0 +1,144 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CommandResult {
+	private final String _command;
+	private final String _result;
+	private final boolean _success;
+	private final boolean _sessionError;
+	private final byte[] _body;
+	private final int _bodyLength;
+	private final int _dataOffset;
+	private final int _dataLength;
+	private long _sentNanos;
+	private long _firstByteNanos;
+	private long _completeNanos;
+
+	private static final Logger _logger = LoggerFactory.getLogger(CommandResult.class);
+
+	private CommandResult(String command, String result, boolean success, boolean sessionError, byte[] body, int bodyLength, int dataOffset, int dataLength) {
+		_command = command;
+		_result = result;
+		_success = success;
+		_sessionError = sessionError;
+		_body = body;
+		_bodyLength = bodyLength;
+		_dataOffset = dataOffset;
+		_dataLength = dataLength;
+	}
+
+	// Reads Response.Result and the position of Response.Data straight from the reply bytes:
+	// {"Response":{"Requested":"...","Result":"Success","Data":{...}}}
+	public static CommandResult decode(String command, byte[] body, int bodyLength) {
+		String result = null;
+		boolean success = false;
+		int dataOffset = 0;
+		int dataLength = 0;
+		try {
+			JsonReader reader = new JsonReader(body, 0, bodyLength);
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (!reader.nextNameEquals("Response")) {
+					reader.skipValue();
+					continue;
+				}
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String name = reader.nextName();
+					if (name.equals("Result")) {
+						result = reader.nextString();
+						success = result.equalsIgnoreCase("Success");
+					} else if (name.equals("Data")) {
+						dataOffset = reader.position();
+						reader.skipValue();
+						dataLength = reader.position() - dataOffset;
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+			}
+		} catch (IOException e) {
+			_logger.debug("Could not decode reply to command '" + command + "': " + e.getMessage());
+			success = false;
+		}
+		// The camera refers to the session in its error reply when the SessionID is unknown or has expired
+		boolean sessionError = !success && ((result != null && result.contains("Session"))
+				|| JsonReader.contains(body, dataOffset, dataLength, "Session"));
+		return new CommandResult(command, result, success, sessionError, body, bodyLength, dataOffset, dataLength);
+	}
+
+	public static CommandResult sessionError(String command, byte[] body, int bodyLength) {
+		return new CommandResult(command, null, false, true, body, bodyLength, 0, 0);
+	}
+
+	// Result of a command that was not sent again because the polled status showed that an earlier request had
+	// taken effect. Has no timing, as the request that arrived was never answered.
+	static CommandResult confirmed(String command, CommandResult status) {
+		return new CommandResult(command, "Success", true, false, status._body, status._bodyLength, 0, 0);
+	}
+
+	public String getCommand() {
+		return _command;
+	}
+
+	// Value of Response.Result as sent by the camera, or null if the reply could not be decoded
+	public String getResult() {
+		return _result;
+	}
+
+	public boolean isSuccess() {
+		return _success;
+	}
+
+	public boolean isSessionError() {
+		return _sessionError;
+	}
+
+	public boolean hasData() {
+		return _dataLength > 0;
+	}
+
+	// Reader positioned at the start of Response.Data, reading from the original reply bytes
+	public JsonReader getDataReader() {
+		return new JsonReader(_body, _dataOffset, _dataLength);
+	}
+
+	// Timestamps are System.nanoTime() values, 0 if unknown
+	public long getSentNanos() {
+		return _sentNanos;
+	}
+
+	public long getFirstByteNanos() {
+		return _firstByteNanos;
+	}
+
+	public long getCompleteNanos() {
+		return _completeNanos;
+	}
+
+	// Round trip from sending the command to having read the complete reply, -1 if unknown
+	public long getRoundTripNanos() {
+		return (_sentNanos != 0 && _completeNanos != 0) ? _completeNanos - _sentNanos : -1;
+	}
+
+	void setTiming(long sentNanos, long firstByteNanos, long completeNanos) {
+		_sentNanos = sentNanos;
+		_firstByteNanos = firstByteNanos;
+		_completeNanos = completeNanos;
+	}
+
+	public String getBody() {
+		return new String(_body, 0, _bodyLength, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		return _command + ": " + (_success ? "success" : "failed") + " (" + getBody() + ")";
+	}
+}
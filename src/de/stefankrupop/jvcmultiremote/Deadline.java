@@ -0,0 +1,57 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.net.SocketTimeoutException;
+
+// Point in time by which a command has to be answered, based on System.nanoTime()
+public final class Deadline {
+	public static final Deadline NONE = new Deadline(0, false);
+
+	private final long _nanos;
+	private final boolean _bounded;
+
+	private Deadline(long nanos, boolean bounded) {
+		_nanos = nanos;
+		_bounded = bounded;
+	}
+
+	public static Deadline after(long timeoutMs) {
+		return new Deadline(System.nanoTime() + timeoutMs * 1000000L, true);
+	}
+
+	public static Deadline commandDefault() {
+		return after(Config.getPropertyInt("commandTimeoutMs", 2000));
+	}
+
+	public boolean isBounded() {
+		return _bounded;
+	}
+
+	public long remainingNanos() {
+		return _bounded ? _nanos - System.nanoTime() : Long.MAX_VALUE;
+	}
+
+	public long remainingMillis() {
+		return _bounded ? remainingNanos() / 1000000L : Long.MAX_VALUE;
+	}
+
+	public boolean isExpired() {
+		return _bounded && remainingNanos() <= 0;
+	}
+
+	// Remaining time as a socket timeout, where 0 means infinite and an expired deadline throws
+	public int socketTimeout() throws SocketTimeoutException {
+		if (!_bounded) {
+			return 0;
+		}
+		long remaining = remainingMillis();
+		if (remaining <= 0) {
+			throw new SocketTimeoutException("Deadline expired");
+		}
+		return (int)Math.min(remaining, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public String toString() {
+		return _bounded ? remainingMillis() + " ms left" : "no deadline";
+	}
+}
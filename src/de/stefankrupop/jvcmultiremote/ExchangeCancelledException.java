@@ -0,0 +1,12 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+
+// The request was given up on purpose, because it has been answered over another connection. Not a camera failure.
+public class ExchangeCancelledException extends IOException {
+	private static final long serialVersionUID = -5524730415786105913L;
+
+	public ExchangeCancelledException(String message, IOException cause) {
+		super(message, cause);
+	}
+}
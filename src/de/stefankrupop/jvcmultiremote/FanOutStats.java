@@ -0,0 +1,161 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Timing of one command sent to several cameras at once: how far apart the sends were and how long the cameras took
+public final class FanOutStats {
+	public static final class Sample {
+		private final String _camera;
+		private final long _sentNanos;
+		private final long _firstByteNanos;
+		private final long _completeNanos;
+		private final long _compensationNanos;
+		private final long _oneWayEstimateNanos;
+
+		Sample(String camera, long sentNanos, long firstByteNanos, long completeNanos, long compensationNanos, long oneWayEstimateNanos) {
+			_camera = camera;
+			_sentNanos = sentNanos;
+			_firstByteNanos = firstByteNanos;
+			_completeNanos = completeNanos;
+			_compensationNanos = compensationNanos;
+			_oneWayEstimateNanos = oneWayEstimateNanos;
+		}
+
+		public String getCamera() {
+			return _camera;
+		}
+
+		// Timestamps are System.nanoTime() values
+		public long getSentNanos() {
+			return _sentNanos;
+		}
+
+		public long getFirstByteNanos() {
+			return _firstByteNanos;
+		}
+
+		public long getCompleteNanos() {
+			return _completeNanos;
+		}
+
+		public long getRoundTripNanos() {
+			return _completeNanos - _sentNanos;
+		}
+
+		// How long the send was deliberately delayed to make up for a shorter round trip than the slowest camera's
+		public long getCompensationNanos() {
+			return _compensationNanos;
+		}
+
+		// Expected instant at which the command reached the camera, based on its round trip estimate
+		public long getExpectedArrivalNanos() {
+			return _sentNanos + _oneWayEstimateNanos;
+		}
+
+		@Override
+		public String toString() {
+			return _camera + String.format(": delayed %.3f ms, first byte %.3f ms, complete %.3f ms", _compensationNanos / 1e6,
+					(_firstByteNanos - _sentNanos) / 1e6, (_completeNanos - _sentNanos) / 1e6);
+		}
+	}
+
+	private final Instant _time;
+	private final String _command;
+	private final int _cameraCount;
+	private final List<Sample> _samples;
+	private final long _firstSentNanos;
+	private final long _spreadNanos;
+	private final long _arrivalSpreadNanos;
+	private final long[] _sortedRoundTrips;
+
+	// Only cameras that answered contribute a sample, the others are counted as failed
+	FanOutStats(String command, int cameraCount, List<Sample> samples) {
+		_time = Instant.now();
+		_command = command;
+		_cameraCount = cameraCount;
+		_samples = samples;
+		long minSent = Long.MAX_VALUE;
+		long maxSent = Long.MIN_VALUE;
+		long minArrival = Long.MAX_VALUE;
+		long maxArrival = Long.MIN_VALUE;
+		_sortedRoundTrips = new long[samples.size()];
+		for (int i = 0; i < samples.size(); i++) {
+			Sample s = samples.get(i);
+			minSent = Math.min(minSent, s._sentNanos);
+			maxSent = Math.max(maxSent, s._sentNanos);
+			minArrival = Math.min(minArrival, s.getExpectedArrivalNanos());
+			maxArrival = Math.max(maxArrival, s.getExpectedArrivalNanos());
+			_sortedRoundTrips[i] = s.getRoundTripNanos();
+		}
+		Arrays.sort(_sortedRoundTrips);
+		_firstSentNanos = samples.isEmpty() ? 0 : minSent;
+		_spreadNanos = samples.isEmpty() ? 0 : maxSent - minSent;
+		_arrivalSpreadNanos = samples.isEmpty() ? 0 : maxArrival - minArrival;
+	}
+
+	public Instant getTime() {
+		return _time;
+	}
+
+	public String getCommand() {
+		return _command;
+	}
+
+	public int getCameraCount() {
+		return _cameraCount;
+	}
+
+	public int getAnsweredCount() {
+		return _samples.size();
+	}
+
+	public List<Sample> getSamples() {
+		return Collections.unmodifiableList(_samples);
+	}
+
+	// Time between the first and the last camera being sent the command
+	public long getSpreadNanos() {
+		return _spreadNanos;
+	}
+
+	// Time between the expected arrival of the command at the first and the last camera
+	public long getExpectedArrivalSpreadNanos() {
+		return _arrivalSpreadNanos;
+	}
+
+	public boolean isCompensated() {
+		for (Sample s : _samples) {
+			if (s._compensationNanos != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// How much later than the first camera the given sample was sent
+	public long getSendOffsetNanos(Sample sample) {
+		return sample._sentNanos - _firstSentNanos;
+	}
+
+	// Nearest-rank percentile of the round trip times, p between 0 and 100. -1 if no camera answered.
+	public long getRoundTripPercentileNanos(double p) {
+		if (_sortedRoundTrips.length == 0) {
+			return -1;
+		}
+		int rank = (int)Math.ceil(p / 100.0 * _sortedRoundTrips.length);
+		return _sortedRoundTrips[Math.max(0, Math.min(_sortedRoundTrips.length - 1, rank - 1))];
+	}
+
+	@Override
+	public String toString() {
+		if (_samples.isEmpty()) {
+			return String.format("%s on 0/%d cameras: spread n/a, round trip n/a", _command, _cameraCount);
+		}
+		return String.format("%s on %d/%d cameras: spread %.3f ms, expected arrival spread %.3f ms%s, round trip p50 %.3f ms, p90 %.3f ms, max %.3f ms",
+				_command, _samples.size(), _cameraCount, _spreadNanos / 1e6, _arrivalSpreadNanos / 1e6, isCompensated() ? " (compensated)" : "",
+				getRoundTripPercentileNanos(50) / 1e6, getRoundTripPercentileNanos(90) / 1e6, getRoundTripPercentileNanos(100) / 1e6);
+	}
+}
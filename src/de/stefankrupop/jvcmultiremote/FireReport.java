@@ -0,0 +1,137 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Outcome of a scheduled record/stop: for every camera its status, classified like in a FleetResult, and how far its
+// send instant was from the target
+public final class FireReport {
+	public static final class Entry {
+		private final Camera _camera;
+		private final FleetResult.Status _status;
+		private final CommandResult _result;
+		private final Throwable _error;
+		private final long _offsetNanos;
+		private final long _compensationNanos;
+
+		Entry(Camera camera, FleetResult.Status status, CommandResult result, Throwable error, long offsetNanos, long compensationNanos) {
+			_camera = camera;
+			_status = status;
+			_result = result;
+			_error = error;
+			_offsetNanos = offsetNanos;
+			_compensationNanos = compensationNanos;
+		}
+
+		public Camera getCamera() {
+			return _camera;
+		}
+
+		public FleetResult.Status getStatus() {
+			return _status;
+		}
+
+		// Null if the command failed with an error
+		public CommandResult getResult() {
+			return _result;
+		}
+
+		// Null if the camera replied
+		public Throwable getError() {
+			return _error;
+		}
+
+		public boolean isSuccess() {
+			return _status == FleetResult.Status.OK;
+		}
+
+		public boolean wasSent() {
+			return _result != null;
+		}
+
+		// False if the send instant is unknown, e.g. when a retry found the camera already in the requested state
+		// and the result was confirmed from its status
+		public boolean hasOffset() {
+			return _result != null && _result.getSentNanos() != 0;
+		}
+
+		// Send instant minus target instant, positive if the command was sent late. Only valid if hasOffset().
+		// Includes the compensation delay, if any.
+		public long getOffsetNanos() {
+			return _offsetNanos;
+		}
+
+		// Planned delay of the send to make up for a shorter round trip than the slowest camera's
+		public long getCompensationNanos() {
+			return _compensationNanos;
+		}
+
+		@Override
+		public String toString() {
+			if (_result == null) {
+				return _camera.toString() + ": " + _status + " (" + ((_error.getMessage() != null) ? _error.getMessage() : _error.toString()) + ")";
+			}
+			return _camera.toString() + ": " + _status + (_result.isSuccess() ? "" : " (" + _result.getResult() + ")")
+					+ (hasOffset() ? String.format(" at %+.3f ms", _offsetNanos / 1e6) : " at unknown offset")
+					+ ((_compensationNanos != 0) ? String.format(" (compensation %.3f ms)", _compensationNanos / 1e6) : "");
+		}
+	}
+
+	private final Instant _target;
+	private final List<Entry> _entries;
+
+	FireReport(Instant target, List<Entry> entries) {
+		_target = target;
+		_entries = entries;
+	}
+
+	public Instant getTarget() {
+		return _target;
+	}
+
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(_entries);
+	}
+
+	public boolean isSuccess() {
+		for (Entry e : _entries) {
+			if (!e.isSuccess()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Cameras to retry, the ones that succeeded must not be commanded again
+	public List<Camera> getFailedCameras() {
+		List<Camera> cams = new ArrayList<Camera>();
+		for (Entry e : _entries) {
+			if (!e.isSuccess()) {
+				cams.add(e.getCamera());
+			}
+		}
+		return cams;
+	}
+
+	// Largest deviation of any sent command from the target, in either direction, over the commands with a known offset
+	public long getMaxOffsetNanos() {
+		long max = 0;
+		for (Entry e : _entries) {
+			if (e.hasOffset()) {
+				max = Math.max(max, Math.abs(e.getOffsetNanos()));
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Fired at " + _target + String.format(", max offset %.3f ms", getMaxOffsetNanos() / 1e6));
+		for (Entry e : _entries) {
+			sb.append("\n  ").append(e);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,137 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+// Outcome of a command sent to several cameras, one entry per camera in the order the cameras were given
+public final class FleetResult {
+	// SKIPPED: not sent, because the camera's circuit breaker is open
+	public enum Status { OK, FAILED, TIMED_OUT, AUTH_ERROR, SKIPPED }
+
+	public static final class Outcome {
+		private final Camera _camera;
+		private final Status _status;
+		private final CommandResult _result;
+		private final Throwable _error;
+
+		Outcome(Camera camera, Status status, CommandResult result, Throwable error) {
+			_camera = camera;
+			_status = status;
+			_result = result;
+			_error = error;
+		}
+
+		public Camera getCamera() {
+			return _camera;
+		}
+
+		public Status getStatus() {
+			return _status;
+		}
+
+		// Reply of the camera, null if there was none
+		public CommandResult getResult() {
+			return _result;
+		}
+
+		// Null if the camera replied
+		public Throwable getError() {
+			return _error;
+		}
+
+		// True if the command failed without a reply from the camera after it may have been sent, so that the camera
+		// may have acted on it all the same
+		public boolean isUncertain() {
+			return _result == null && (_status == Status.FAILED || _status == Status.TIMED_OUT) && !(_error instanceof NotLoggedInException);
+		}
+
+		// Round trip of the command, -1 if the camera did not reply
+		public long getLatencyNanos() {
+			return (_result != null) ? _result.getRoundTripNanos() : -1;
+		}
+
+		@Override
+		public String toString() {
+			String detail;
+			if (_error != null) {
+				detail = (_error.getMessage() != null) ? _error.getMessage() : _error.toString();
+			} else if (_status != Status.OK) {
+				detail = _result.getResult();
+			} else if (getLatencyNanos() < 0) {
+				detail = "ok";
+			} else {
+				detail = String.format("%.3f ms", getLatencyNanos() / 1e6);
+			}
+			return _camera.toString() + ": " + _status + " (" + detail + ")";
+		}
+	}
+
+	private final String _command;
+	private final List<Outcome> _outcomes;
+	private final FanOutStats _stats;
+
+	FleetResult(String command, List<Outcome> outcomes, FanOutStats stats) {
+		_command = command;
+		_outcomes = outcomes;
+		_stats = stats;
+	}
+
+	public String getCommand() {
+		return _command;
+	}
+
+	public List<Outcome> getOutcomes() {
+		return Collections.unmodifiableList(_outcomes);
+	}
+
+	// Timing statistics of the cameras that replied, null if the command was not a simultaneous fan-out
+	public FanOutStats getStats() {
+		return _stats;
+	}
+
+	public boolean isSuccess() {
+		for (Outcome o : _outcomes) {
+			if (o._status != Status.OK) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public List<Camera> getCameras(Status status, Status... more) {
+		EnumSet<Status> wanted = EnumSet.of(status, more);
+		List<Camera> cams = new ArrayList<Camera>();
+		for (Outcome o : _outcomes) {
+			if (wanted.contains(o._status)) {
+				cams.add(o._camera);
+			}
+		}
+		return cams;
+	}
+
+	// Cameras to retry, the ones that succeeded must not be commanded again
+	public List<Camera> getFailedCameras() {
+		return getCameras(Status.FAILED, Status.TIMED_OUT, Status.AUTH_ERROR, Status.SKIPPED);
+	}
+
+	public List<Outcome> getFailures() {
+		List<Outcome> failures = new ArrayList<Outcome>();
+		for (Outcome o : _outcomes) {
+			if (o._status != Status.OK) {
+				failures.add(o);
+			}
+		}
+		return failures;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(_command + ": " + (_outcomes.size() - getFailures().size()) + " of " + _outcomes.size() + " cameras succeeded");
+		for (Outcome o : getFailures()) {
+			sb.append("\n  ").append(o);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,79 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class HttpResponse {
+	private final String _version;
+	private final int _status;
+	private final Map<String, List<String>> _headers;
+	private final byte[] _body;
+	private final int _bodyLength;
+	private final long _firstByteNanos;
+	private final long _completeNanos;
+	private long _sentNanos;
+
+	HttpResponse(String version, int status, Map<String, List<String>> headers, byte[] body, int bodyLength, long firstByteNanos, long completeNanos) {
+		_version = version;
+		_status = status;
+		_headers = headers;
+		_body = body;
+		_bodyLength = bodyLength;
+		_firstByteNanos = firstByteNanos;
+		_completeNanos = completeNanos;
+	}
+
+	public int getStatus() {
+		return _status;
+	}
+
+	public Map<String, List<String>> getHeaders() {
+		return Collections.unmodifiableMap(_headers);
+	}
+
+	public String getHeader(String name) {
+		for (Map.Entry<String, List<String>> e : _headers.entrySet()) {
+			if (e.getKey().equalsIgnoreCase(name) && !e.getValue().isEmpty()) {
+				return e.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	// Body bytes are not copied, only the first getBodyLength() bytes are valid
+	public byte[] getBody() {
+		return _body;
+	}
+
+	public int getBodyLength() {
+		return _bodyLength;
+	}
+
+	// System.nanoTime() at which the request was written, i.e. the instant the camera was commanded
+	public long getSentNanos() {
+		return _sentNanos;
+	}
+
+	void setSentNanos(long sentNanos) {
+		_sentNanos = sentNanos;
+	}
+
+	// System.nanoTime() at which the first byte of the response was read
+	public long getFirstByteNanos() {
+		return _firstByteNanos;
+	}
+
+	// System.nanoTime() at which the response was read completely
+	public long getCompleteNanos() {
+		return _completeNanos;
+	}
+
+	public boolean isKeepAlive() {
+		String connection = getHeader("Connection");
+		if ("HTTP/1.0".equals(_version)) {
+			return connection != null && connection.equalsIgnoreCase("keep-alive");
+		}
+		return connection == null || !connection.equalsIgnoreCase("close");
+	}
+}
@@ -0,0 +1,264 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Incremental HTTP/1.1 response parser, bytes can be fed in arbitrary pieces
+class HttpResponseParser {
+	private enum State { STATUS_LINE, HEADERS, BODY_FIXED, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, BODY_UNTIL_CLOSE, COMPLETE }
+
+	private static final int MAX_LINE_LENGTH = 8192;
+
+	private State _state;
+	private boolean _started;
+	private byte[] _line;
+	private int _lineLength;
+	private String _version;
+	private int _status;
+	private Map<String, List<String>> _headers;
+	private byte[] _body;
+	private int _bodyLength;
+	private long _remaining;
+	private long _firstByteNanos;
+	private long _completeNanos;
+
+	public HttpResponseParser() {
+		_line = new byte[256];
+		reset();
+	}
+
+	public void reset() {
+		_state = State.STATUS_LINE;
+		_started = false;
+		_lineLength = 0;
+		_version = null;
+		_status = 0;
+		_headers = new LinkedHashMap<String, List<String>>();
+		_body = null;
+		_bodyLength = 0;
+		_remaining = 0;
+		_firstByteNanos = 0;
+		_completeNanos = 0;
+	}
+
+	public boolean hasStarted() {
+		return _started;
+	}
+
+	public boolean isComplete() {
+		return _state == State.COMPLETE;
+	}
+
+	// Consumes bytes from the buffer's position up to the end of the response, bytes
+	// beyond it are left in the buffer. Works on heap and direct buffers alike.
+	public void feed(ByteBuffer data) throws IOException {
+		if (data.hasRemaining() && !_started) {
+			_started = true;
+			_firstByteNanos = System.nanoTime();
+		}
+		while (data.hasRemaining() && _state != State.COMPLETE) {
+			switch (_state) {
+				case BODY_FIXED:
+				case CHUNK_DATA: {
+					int n = (int)Math.min(_remaining, data.remaining());
+					appendBody(data, n);
+					_remaining -= n;
+					if (_remaining == 0) {
+						_state = (_state == State.BODY_FIXED) ? State.COMPLETE : State.CHUNK_END;
+					}
+					break;
+				}
+				case BODY_UNTIL_CLOSE:
+					appendBody(data, data.remaining());
+					break;
+				default: {
+					byte b = data.get();
+					if (b == '\n') {
+						processLine();
+						_lineLength = 0;
+					} else {
+						appendLine(b);
+					}
+					break;
+				}
+			}
+		}
+		if (_state == State.COMPLETE && _completeNanos == 0) {
+			_completeNanos = System.nanoTime();
+		}
+	}
+
+	public void endOfStream() throws IOException {
+		if (_state == State.BODY_UNTIL_CLOSE) {
+			_state = State.COMPLETE;
+			_completeNanos = System.nanoTime();
+		} else if (_state != State.COMPLETE) {
+			throw new EOFException(_started ? "Connection closed in the middle of a response" : "Connection closed by camera");
+		}
+	}
+
+	public HttpResponse getResponse() {
+		if (_state != State.COMPLETE) {
+			throw new IllegalStateException("Response not complete");
+		}
+		return new HttpResponse(_version, _status, _headers, (_body != null) ? _body : new byte[0], _bodyLength, _firstByteNanos, _completeNanos);
+	}
+
+	private void appendLine(byte b) throws IOException {
+		if (_lineLength == _line.length) {
+			if (_lineLength >= MAX_LINE_LENGTH) {
+				throw new IOException("Invalid HTTP response: Line too long");
+			}
+			byte[] newLine = new byte[_line.length * 2];
+			System.arraycopy(_line, 0, newLine, 0, _lineLength);
+			_line = newLine;
+		}
+		_line[_lineLength++] = b;
+	}
+
+	private void appendBody(ByteBuffer data, int length) {
+		if (_body == null) {
+			_body = new byte[Math.max(length, 1024)];
+		} else if (_bodyLength + length > _body.length) {
+			byte[] newBody = new byte[Math.max(_body.length * 2, _bodyLength + length)];
+			System.arraycopy(_body, 0, newBody, 0, _bodyLength);
+			_body = newBody;
+		}
+		data.get(_body, _bodyLength, length);
+		_bodyLength += length;
+	}
+
+	private String lineAsString() {
+		int len = _lineLength;
+		if (len > 0 && _line[len - 1] == '\r') {
+			len--;
+		}
+		return new String(_line, 0, len, StandardCharsets.ISO_8859_1);
+	}
+
+	private void processLine() throws IOException {
+		String line = lineAsString();
+		switch (_state) {
+			case STATUS_LINE:
+				if (line.isEmpty()) {
+					return; // Tolerate stray line breaks between responses
+				}
+				parseStatusLine(line);
+				_state = State.HEADERS;
+				break;
+			case HEADERS:
+				if (line.isEmpty()) {
+					startBody();
+				} else {
+					int colon = line.indexOf(':');
+					if (colon <= 0) {
+						throw new IOException("Invalid HTTP response: Malformed header '" + line + "'");
+					}
+					String name = line.substring(0, colon).trim();
+					List<String> values = _headers.get(name);
+					if (values == null) {
+						values = new ArrayList<String>(1);
+						_headers.put(name, values);
+					}
+					values.add(line.substring(colon + 1).trim());
+				}
+				break;
+			case CHUNK_SIZE: {
+				int semicolon = line.indexOf(';');
+				String size = (semicolon >= 0 ? line.substring(0, semicolon) : line).trim();
+				try {
+					_remaining = Long.parseLong(size, 16);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid HTTP response: Malformed chunk size '" + line + "'");
+				}
+				if (_remaining == 0) {
+					_state = State.TRAILERS;
+				} else {
+					ensureBodyCapacity(_remaining);
+					_state = State.CHUNK_DATA;
+				}
+				break;
+			}
+			case CHUNK_END:
+				_state = State.CHUNK_SIZE;
+				break;
+			case TRAILERS:
+				if (line.isEmpty()) {
+					_state = State.COMPLETE;
+				}
+				break;
+			default:
+				throw new IllegalStateException("Unexpected parser state " + _state);
+		}
+	}
+
+	private void parseStatusLine(String line) throws IOException {
+		String parts[] = line.split(" ", 3);
+		if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+			throw new IOException("Invalid HTTP response: Malformed status line '" + line + "'");
+		}
+		_version = parts[0];
+		try {
+			_status = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid HTTP response: Malformed status line '" + line + "'");
+		}
+	}
+
+	private void startBody() throws IOException {
+		if (_status >= 100 && _status < 200) {
+			// Interim response, the real one follows
+			_headers.clear();
+			_state = State.STATUS_LINE;
+			return;
+		}
+		if (_status == 204 || _status == 304) {
+			_state = State.COMPLETE;
+			return;
+		}
+		String transferEncoding = headerValue("Transfer-Encoding");
+		String contentLength = headerValue("Content-Length");
+		if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+			_state = State.CHUNK_SIZE;
+		} else if (contentLength != null) {
+			try {
+				_remaining = Long.parseLong(contentLength);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid HTTP response: Malformed Content-Length '" + contentLength + "'");
+			}
+			ensureBodyCapacity(_remaining);
+			_state = (_remaining == 0) ? State.COMPLETE : State.BODY_FIXED;
+		} else {
+			_state = State.BODY_UNTIL_CLOSE;
+		}
+	}
+
+	private void ensureBodyCapacity(long additional) throws IOException {
+		if (_bodyLength + additional > Integer.MAX_VALUE - 8) {
+			throw new IOException("Invalid HTTP response: Body too large");
+		}
+		int needed = (int)(_bodyLength + additional);
+		if (_body == null) {
+			_body = new byte[needed];
+		} else if (needed > _body.length) {
+			byte[] newBody = new byte[needed];
+			System.arraycopy(_body, 0, newBody, 0, _bodyLength);
+			_body = newBody;
+		}
+	}
+
+	private String headerValue(String name) {
+		for (Map.Entry<String, List<String>> e : _headers.entrySet()) {
+			if (e.getKey().equalsIgnoreCase(name) && !e.getValue().isEmpty()) {
+				return e.getValue().get(0);
+			}
+		}
+		return null;
+	}
+}
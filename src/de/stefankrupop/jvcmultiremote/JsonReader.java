@@ -0,0 +1,268 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Minimal pull parser that reads JSON directly from a byte range without copying it first
+class JsonReader {
+	public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, STRING, NUMBER, LITERAL, END_DOCUMENT }
+
+	private final byte[] _buf;
+	private final int _end;
+	private int _pos;
+
+	public JsonReader(byte[] buf, int offset, int length) {
+		_buf = buf;
+		_pos = offset;
+		_end = offset + length;
+	}
+
+	public int position() {
+		skipWhitespace();
+		return _pos;
+	}
+
+	public Token peek() throws IOException {
+		skipWhitespace();
+		if (_pos >= _end) {
+			return Token.END_DOCUMENT;
+		}
+		switch (_buf[_pos]) {
+			case '{': return Token.BEGIN_OBJECT;
+			case '}': return Token.END_OBJECT;
+			case '[': return Token.BEGIN_ARRAY;
+			case ']': return Token.END_ARRAY;
+			case '"': return Token.STRING;
+			case 't':
+			case 'f':
+			case 'n': return Token.LITERAL;
+			default:
+				if (_buf[_pos] == '-' || (_buf[_pos] >= '0' && _buf[_pos] <= '9')) {
+					return Token.NUMBER;
+				}
+				throw syntaxError("Unexpected character '" + (char)_buf[_pos] + "'");
+		}
+	}
+
+	public void beginObject() throws IOException {
+		expect('{');
+	}
+
+	public void endObject() throws IOException {
+		skipSeparator();
+		expect('}');
+	}
+
+	public void beginArray() throws IOException {
+		expect('[');
+	}
+
+	public void endArray() throws IOException {
+		skipSeparator();
+		expect(']');
+	}
+
+	// True if the current object or array has another member
+	public boolean hasNext() throws IOException {
+		skipSeparator();
+		if (_pos >= _end) {
+			throw syntaxError("Unexpected end of input");
+		}
+		return _buf[_pos] != '}' && _buf[_pos] != ']';
+	}
+
+	public String nextName() throws IOException {
+		skipSeparator();
+		String name = nextString();
+		expect(':');
+		return name;
+	}
+
+	// Compares the next member name against an ASCII name without allocating, and consumes it
+	public boolean nextNameEquals(String name) throws IOException {
+		skipSeparator();
+		int start = stringStart();
+		int end = stringEnd(start);
+		_pos = end + 1;
+		expect(':');
+		return regionEquals(start, end, name);
+	}
+
+	public String nextString() throws IOException {
+		skipSeparator();
+		if (peek() != Token.STRING) {
+			// Numbers and literals are returned as written
+			int start = _pos;
+			skipValue();
+			return new String(_buf, start, _pos - start, StandardCharsets.US_ASCII);
+		}
+		int start = stringStart();
+		int end = stringEnd(start);
+		_pos = end + 1;
+		return decodeString(start, end);
+	}
+
+	public void skipValue() throws IOException {
+		skipSeparator();
+		switch (peek()) {
+			case BEGIN_OBJECT:
+			case BEGIN_ARRAY: {
+				int depth = 0;
+				do {
+					skipWhitespace();
+					if (_pos >= _end) {
+						throw syntaxError("Unexpected end of input");
+					}
+					byte b = _buf[_pos];
+					if (b == '"') {
+						_pos = stringEnd(stringStart()) + 1;
+						continue;
+					}
+					if (b == '{' || b == '[') {
+						depth++;
+					} else if (b == '}' || b == ']') {
+						depth--;
+					}
+					_pos++;
+				} while (depth > 0);
+				break;
+			}
+			case STRING:
+				_pos = stringEnd(stringStart()) + 1;
+				break;
+			case NUMBER:
+			case LITERAL:
+				while (_pos < _end && _buf[_pos] != ',' && _buf[_pos] != '}' && _buf[_pos] != ']' && !isWhitespace(_buf[_pos])) {
+					_pos++;
+				}
+				break;
+			default:
+				throw syntaxError("Expected a value");
+		}
+	}
+
+	// Searches an ASCII needle within a byte range, used to inspect raw values without decoding them
+	public static boolean contains(byte[] buf, int offset, int length, String needle) {
+		int n = needle.length();
+		for (int i = offset; i <= offset + length - n; i++) {
+			int j = 0;
+			while (j < n && buf[i + j] == needle.charAt(j)) {
+				j++;
+			}
+			if (j == n) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int stringStart() throws IOException {
+		expect('"');
+		return _pos;
+	}
+
+	// Returns the index of the closing quote
+	private int stringEnd(int start) throws IOException {
+		int i = start;
+		while (i < _end) {
+			if (_buf[i] == '\\') {
+				i += 2;
+			} else if (_buf[i] == '"') {
+				return i;
+			} else {
+				i++;
+			}
+		}
+		throw syntaxError("Unterminated string");
+	}
+
+	private boolean regionEquals(int start, int end, String value) {
+		if (end - start != value.length()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (_buf[start + i] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String decodeString(int start, int end) throws IOException {
+		int i = start;
+		while (i < end && _buf[i] != '\\') {
+			i++;
+		}
+		if (i == end) {
+			return new String(_buf, start, end - start, StandardCharsets.UTF_8);
+		}
+		StringBuilder sb = new StringBuilder(end - start);
+		sb.append(new String(_buf, start, i - start, StandardCharsets.UTF_8));
+		while (i < end) {
+			byte b = _buf[i];
+			if (b != '\\') {
+				int runStart = i;
+				while (i < end && _buf[i] != '\\') {
+					i++;
+				}
+				sb.append(new String(_buf, runStart, i - runStart, StandardCharsets.UTF_8));
+				continue;
+			}
+			if (i + 1 >= end) {
+				throw syntaxError("Invalid escape sequence");
+			}
+			char c = (char)_buf[i + 1];
+			i += 2;
+			switch (c) {
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'u':
+					if (i + 4 > end) {
+						throw syntaxError("Invalid unicode escape");
+					}
+					try {
+						sb.append((char)Integer.parseInt(new String(_buf, i, 4, StandardCharsets.US_ASCII), 16));
+					} catch (NumberFormatException e) {
+						throw syntaxError("Invalid unicode escape");
+					}
+					i += 4;
+					break;
+				default: sb.append(c); break;
+			}
+		}
+		return sb.toString();
+	}
+
+	private void expect(char c) throws IOException {
+		skipWhitespace();
+		if (_pos >= _end || _buf[_pos] != c) {
+			throw syntaxError("Expected '" + c + "'");
+		}
+		_pos++;
+	}
+
+	private void skipSeparator() {
+		skipWhitespace();
+		if (_pos < _end && _buf[_pos] == ',') {
+			_pos++;
+			skipWhitespace();
+		}
+	}
+
+	private void skipWhitespace() {
+		while (_pos < _end && isWhitespace(_buf[_pos])) {
+			_pos++;
+		}
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException("Invalid JSON reply at offset " + _pos + ": " + message);
+	}
+}
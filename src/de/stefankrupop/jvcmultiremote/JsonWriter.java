@@ -0,0 +1,142 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+
+// Minimal streaming JSON writer into a reusable, growing byte buffer
+class JsonWriter {
+	private static final int MAX_DEPTH = 16;
+
+	private byte[] _buf;
+	private int _length;
+	private final boolean[] _hasMembers;
+	private int _depth;
+
+	public JsonWriter(int initialCapacity) {
+		_buf = new byte[initialCapacity];
+		_hasMembers = new boolean[MAX_DEPTH];
+	}
+
+	public void reset() {
+		_length = 0;
+		_depth = 0;
+	}
+
+	public byte[] buffer() {
+		return _buf;
+	}
+
+	public int length() {
+		return _length;
+	}
+
+	public JsonWriter beginObject() throws IOException {
+		if (_depth == MAX_DEPTH) {
+			throw new IOException("JSON nested too deeply");
+		}
+		write('{');
+		_hasMembers[_depth++] = false;
+		return this;
+	}
+
+	public JsonWriter endObject() {
+		_depth--;
+		write('}');
+		return this;
+	}
+
+	public JsonWriter name(String name) {
+		if (_hasMembers[_depth - 1]) {
+			write(',');
+		}
+		_hasMembers[_depth - 1] = true;
+		writeString(name);
+		write(':');
+		return this;
+	}
+
+	public JsonWriter value(String value) {
+		writeString(value);
+		return this;
+	}
+
+	public JsonWriter value(long value) {
+		if (value < 0) {
+			write('-');
+			value = -value;
+		}
+		writeDigits(value);
+		return this;
+	}
+
+	public JsonWriter value(boolean value) {
+		writeAscii(value ? "true" : "false");
+		return this;
+	}
+
+	// Writes a non-negative number in decimal without creating a String
+	public void writeDigits(long value) {
+		if (value >= 10) {
+			writeDigits(value / 10);
+		}
+		write((byte)('0' + (value % 10)));
+	}
+
+	public void writeAscii(String s) {
+		ensureCapacity(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			_buf[_length++] = (byte)s.charAt(i);
+		}
+	}
+
+	public void write(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, _buf, _length, length);
+		_length += length;
+	}
+
+	private void write(char c) {
+		write((byte)c);
+	}
+
+	private void write(byte b) {
+		ensureCapacity(1);
+		_buf[_length++] = b;
+	}
+
+	private void writeString(String s) {
+		write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				write('\\');
+				write(c);
+			} else if (c < 0x20) {
+				writeAscii(String.format("\\u%04x", (int)c));
+			} else if (c < 0x80) {
+				write(c);
+			} else if (c < 0x800) {
+				write((byte)(0xC0 | (c >> 6)));
+				write((byte)(0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length()) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				write((byte)(0xF0 | (cp >> 18)));
+				write((byte)(0x80 | ((cp >> 12) & 0x3F)));
+				write((byte)(0x80 | ((cp >> 6) & 0x3F)));
+				write((byte)(0x80 | (cp & 0x3F)));
+			} else {
+				write((byte)(0xE0 | (c >> 12)));
+				write((byte)(0x80 | ((c >> 6) & 0x3F)));
+				write((byte)(0x80 | (c & 0x3F)));
+			}
+		}
+		write('"');
+	}
+
+	private void ensureCapacity(int additional) {
+		if (_length + additional > _buf.length) {
+			byte[] newBuf = new byte[Math.max(_buf.length * 2, _length + additional)];
+			System.arraycopy(_buf, 0, newBuf, 0, _length);
+			_buf = newBuf;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Immutable command of the JVC camcorder web API, see JvcCamcorderApiReference
+public final class JvcCommand {
+	public static final JvcCommand GET_CAM_STATUS = new JvcCommand("GetCamStatus");
+	public static final JvcCommand GET_SYSTEM_INFO = new JvcCommand("GetSystemInfo");
+	public static final JvcCommand REC_START = setWebKeyEvent("Rec", "Start");
+	public static final JvcCommand REC_STOP = setWebKeyEvent("Rec", "Stop");
+
+	private final String _name;
+	private final String[] _paramNames;
+	private final Object[] _paramValues;
+
+	public JvcCommand(String name) {
+		this(name, new String[0], new Object[0]);
+	}
+
+	private JvcCommand(String name, String[] paramNames, Object[] paramValues) {
+		_name = name;
+		_paramNames = paramNames;
+		_paramValues = paramValues;
+	}
+
+	public static JvcCommand setWebKeyEvent(String kind, String key) {
+		return new JvcCommand("SetWebKeyEvent").param("Kind", kind).param("Key", key);
+	}
+
+	public static JvcCommand setCamCtrl(String camCtrl) {
+		return new JvcCommand("SetCamCtrl").param("CamCtrl", camCtrl);
+	}
+
+	public static JvcCommand recording(boolean state) {
+		return state ? REC_START : REC_STOP;
+	}
+
+	// Returns a copy of this command with an additional parameter (String, Number or Boolean)
+	public JvcCommand param(String name, Object value) {
+		if (!(value instanceof String || value instanceof Number || value instanceof Boolean)) {
+			throw new IllegalArgumentException("Unsupported parameter type for " + name + ": " + value);
+		}
+		String[] names = Arrays.copyOf(_paramNames, _paramNames.length + 1);
+		Object[] values = Arrays.copyOf(_paramValues, _paramValues.length + 1);
+		names[names.length - 1] = name;
+		values[values.length - 1] = value;
+		return new JvcCommand(_name, names, values);
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	// SetWebKeyEvent presses a key on the camera, e.g. Rec, so sending it twice is not the same as sending it once
+	public boolean isIdempotent() {
+		return !_name.equals("SetWebKeyEvent");
+	}
+
+	public boolean hasParams() {
+		return _paramNames.length > 0;
+	}
+
+	// {"Request":{"Command":"...","SessionID":"...","Params":{...}}}
+	void writeRequest(JsonWriter writer, String sessionId) throws IOException {
+		writer.beginObject();
+		writer.name("Request").beginObject();
+		writer.name("Command").value(_name);
+		writer.name("SessionID").value(sessionId);
+		if (hasParams()) {
+			writer.name("Params").beginObject();
+			for (int i = 0; i < _paramNames.length; i++) {
+				writer.name(_paramNames[i]);
+				Object value = _paramValues[i];
+				if (value instanceof String) {
+					writer.value((String)value);
+				} else if (value instanceof Boolean) {
+					writer.value(((Boolean)value).booleanValue());
+				} else {
+					writer.value(((Number)value).longValue());
+				}
+			}
+			writer.endObject();
+		}
+		writer.endObject();
+		writer.endObject();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof JvcCommand)) {
+			return false;
+		}
+		JvcCommand other = (JvcCommand)o;
+		return _name.equals(other._name) && Arrays.equals(_paramNames, other._paramNames) && Arrays.equals(_paramValues, other._paramValues);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * _name.hashCode() + Arrays.hashCode(_paramValues);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(_name);
+		if (hasParams()) {
+			sb.append('(');
+			for (int i = 0; i < _paramNames.length; i++) {
+				if (i > 0) {
+					sb.append(", ");
+				}
+				sb.append(_paramNames[i]).append('=').append(_paramValues[i]);
+			}
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+}
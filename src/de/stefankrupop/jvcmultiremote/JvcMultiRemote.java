@@ -7,6 +7,7 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 import javax.swing.JButton;
@@ -18,7 +19,9 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 
 import com.tulskiy.keymaster.common.HotKey;
@@ -33,6 +36,7 @@ public class JvcMultiRemote extends JFrame {
 	private final JButton _cmdStop;
 	private final JCheckBox _chkAlwaysOnTop;
 	private final JCheckBox _chkHotkeys;
+	private final Timer _refreshTimer;
 	private com.tulskiy.keymaster.common.Provider _hotkeyProvider = null;
 	
 	public JvcMultiRemote(CameraManager mgr) {
@@ -55,31 +59,25 @@ public class JvcMultiRemote extends JFrame {
 		
 		_lstCameras = new JList<Camera>(_cameraManager.getCameras().toArray(new Camera[0]));
 		_lstCameras.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+		_lstCameras.setCellRenderer(new CameraListCellRenderer());
 		_lstCameras.addSelectionInterval(0, _cameraManager.getCameras().size() - 1);
 		JScrollPane lstCamerasScroll = new JScrollPane(_lstCameras);
 		this.add(lstCamerasScroll, BorderLayout.CENTER);
+		// Status and circuit breakers change in the background
+		_refreshTimer = new Timer(Config.getPropertyInt("statusRefreshMs", 500), new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				_lstCameras.repaint();
+			}
+		});
+		_refreshTimer.start();
 		
 		_cmdRecord = new JButton("Record");
 		_cmdRecord.setPreferredSize(new Dimension(80, 32));
 		_cmdRecord.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
-					@Override
-					public Void doInBackground() {
-						_cmdRecord.setEnabled(false);
-						_cmdStop.setEnabled(false);
-						try {
-							_cameraManager.setRecordingSimultaneous(_lstCameras.getSelectedValuesList(), true);
-						} catch (IOException e) {
-							JOptionPane.showMessageDialog(JvcMultiRemote.this, "Could not execute command: " + e.toString(), "Executing command failed", JOptionPane.ERROR_MESSAGE);
-						}
-						_cmdRecord.setEnabled(true);
-						_cmdStop.setEnabled(true);
-						return null;
-					}
-				};
-				worker.execute();
+				startRecording(_lstCameras.getSelectedValuesList(), true);
 			}
 		});
 		_cmdStop = new JButton("Stop");
@@ -87,22 +85,7 @@ public class JvcMultiRemote extends JFrame {
 		_cmdStop.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
-					@Override
-					public Void doInBackground() {
-						_cmdStop.setEnabled(false);
-						_cmdRecord.setEnabled(false);
-						try {
-							_cameraManager.setRecordingSimultaneous(_lstCameras.getSelectedValuesList(), false);
-						} catch (IOException e) {
-							JOptionPane.showMessageDialog(JvcMultiRemote.this, "Could not execute command: " + e.toString(), "Executing command failed", JOptionPane.ERROR_MESSAGE);
-						}
-						_cmdStop.setEnabled(true);
-						_cmdRecord.setEnabled(true);
-						return null;
-					}
-				};
-				worker.execute();
+				startRecording(_lstCameras.getSelectedValuesList(), false);
 			}
 		});
 		_chkAlwaysOnTop = new JCheckBox("Always on top");
@@ -139,6 +122,10 @@ public class JvcMultiRemote extends JFrame {
 							_cmdStop.doClick();
 						}
 					});
+					for (String group : _cameraManager.getGroups()) {
+						registerGroupHotkey(group, "globalHotkeyRecord." + group, true);
+						registerGroupHotkey(group, "globalHotkeyStop." + group, false);
+					}
 				} else {
 					if (_hotkeyProvider != null) {
 						_hotkeyProvider.reset();
@@ -169,7 +156,14 @@ public class JvcMultiRemote extends JFrame {
 				_cmdRecord.setEnabled(false);
 				_cmdStop.setEnabled(false);
 				try {
-					_cameraManager.connectAllCameras();
+					FleetResult result = _cameraManager.connectAllCameras();
+					if (!result.isSuccess()) {
+						StringBuilder sb = new StringBuilder("Could not connect to the following cameras, retrying in the background:");
+						for (FleetResult.Outcome o : result.getFailures()) {
+							sb.append("\n").append(o.toString());
+						}
+						JOptionPane.showMessageDialog(JvcMultiRemote.this, sb.toString(), "Camera connection failed", JOptionPane.WARNING_MESSAGE);
+					}
 				} catch (IOException e) {
 					JOptionPane.showMessageDialog(JvcMultiRemote.this, "Could not connect to cameras: " + e.toString(), "Camera connection failed", JOptionPane.ERROR_MESSAGE);
 				}
@@ -181,6 +175,76 @@ public class JvcMultiRemote extends JFrame {
 		};
 		worker.execute();
 	}
+
+	// Group hotkeys are optional, they act on the group regardless of the selection in the list
+	private void registerGroupHotkey(final String group, String key, final boolean state) {
+		String value = Config.getProperty(key, "");
+		if (value.isEmpty()) {
+			return;
+		}
+		KeyStroke keyStroke = KeyStroke.getKeyStroke(value);
+		if (keyStroke == null) {
+			JOptionPane.showMessageDialog(this, "Invalid hotkey '" + value + "' in " + key, "Global hotkeys error", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		_hotkeyProvider.register(keyStroke, new HotKeyListener() {
+			@Override
+			public void onHotKey(HotKey arg0) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						startRecording(_cameraManager.getCameras(group), state);
+					}
+				});
+			}
+		});
+	}
+
+	// Record and Stop run one at a time, from the buttons as well as from the hotkeys: both buttons are disabled while
+	// a command is running, and a command started meanwhile is ignored. Has to be called on the event dispatch thread.
+	private void startRecording(final List<Camera> cams, final boolean state) {
+		if (!_cmdRecord.isEnabled() || !_cmdStop.isEnabled()) {
+			return;
+		}
+		_cmdRecord.setEnabled(false);
+		_cmdStop.setEnabled(false);
+		SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+			@Override
+			public Void doInBackground() {
+				setRecording(cams, state);
+				return null;
+			}
+
+			@Override
+			protected void done() {
+				_cmdRecord.setEnabled(true);
+				_cmdStop.setEnabled(true);
+			}
+		};
+		worker.execute();
+	}
+
+	// Sends the command and offers to retry it on the cameras that failed, the others are not commanded again
+	private void setRecording(List<Camera> cams, boolean state) {
+		try {
+			FleetResult result = _cameraManager.setRecordingSimultaneous(cams, state);
+			while (!result.isSuccess()) {
+				StringBuilder sb = new StringBuilder("The command failed on the following cameras:");
+				for (FleetResult.Outcome o : result.getFailures()) {
+					sb.append("\n").append(o.toString());
+				}
+				Object[] options = new Object[] {"Retry failed cameras", "Close"};
+				int choice = JOptionPane.showOptionDialog(JvcMultiRemote.this, sb.toString(), "Executing command failed",
+						JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+				if (choice != 0) {
+					break;
+				}
+				result = _cameraManager.retryRecording(result, state);
+			}
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(JvcMultiRemote.this, "Could not execute command: " + e.toString(), "Executing command failed", JOptionPane.ERROR_MESSAGE);
+		}
+	}
 	
 	@Override
 	public void dispose() {
@@ -190,6 +254,7 @@ public class JvcMultiRemote extends JFrame {
 		Config.setProperty("windowY", this.getLocation().y);
 		Config.setProperty("alwaysOnTop", _chkAlwaysOnTop.isSelected());
 		Config.setProperty("enableGlobalHotkeys", _chkHotkeys.isSelected());
+		_refreshTimer.stop();
 		if (_hotkeyProvider != null) {
 			_hotkeyProvider.reset();
 			_hotkeyProvider.stop();
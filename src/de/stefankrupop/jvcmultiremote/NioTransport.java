@@ -0,0 +1,426 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Optional transport that multiplexes the keep-alive connections of all cameras on a single
+// selector thread, instead of blocking one thread per command
+public class NioTransport implements Closeable {
+	private static final int BUFFER_SIZE = 8192;
+	private static final long DEADLINE_CHECK_MS = 5;
+
+	private final Selector _selector;
+	private final Thread _ioThread;
+	private final ConcurrentLinkedQueue<Endpoint> _pending;
+	private final Set<Endpoint> _active; // Endpoints with an exchange in progress, only accessed by the I/O thread
+	private final BufferPool _bufferPool;
+	private final long _maxIdleNanos;
+	private volatile boolean _running;
+
+	private final Logger _logger = LoggerFactory.getLogger(NioTransport.class);
+
+	public static class Endpoint {
+		private final CameraAddress _address;
+		private final SocketSettings _settings;
+		private final ConcurrentLinkedQueue<Exchange> _queue;
+		private volatile boolean _warmUpRequested;
+
+		// Only accessed by the I/O thread
+		private SocketChannel _channel;
+		private SelectionKey _key;
+		private boolean _connected;
+		private boolean _reused;
+		private long _lastUsedNanos;
+		private Exchange _current;
+		private ByteBuffer _writeBuffer;
+		private ByteBuffer _readBuffer;
+		private final HttpResponseParser _parser;
+
+		private Endpoint(CameraAddress address, SocketSettings settings) {
+			_address = address;
+			_settings = settings;
+			_queue = new ConcurrentLinkedQueue<Exchange>();
+			_parser = new HttpResponseParser();
+		}
+
+		@Override
+		public String toString() {
+			return _address.toString();
+		}
+	}
+
+	private static class Exchange {
+		private final byte[] _request;
+		private final boolean _resendable;
+		private final Deadline _deadline;
+		private final CompletableFuture<HttpResponse> _future;
+		private boolean _retried;
+		private long _sentNanos;
+
+		private Exchange(byte[] request, boolean resendable, Deadline deadline) {
+			_request = request;
+			_resendable = resendable;
+			_deadline = deadline;
+			_future = new CompletableFuture<HttpResponse>();
+		}
+	}
+
+	public NioTransport(long maxIdleMs) throws IOException {
+		_selector = Selector.open();
+		_pending = new ConcurrentLinkedQueue<Endpoint>();
+		_active = new HashSet<Endpoint>();
+		_bufferPool = new BufferPool(BUFFER_SIZE, 256);
+		_maxIdleNanos = maxIdleMs * 1000000L;
+		_running = true;
+		_ioThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				eventLoop();
+			}
+		}, "camera-nio");
+		_ioThread.setDaemon(true);
+		_ioThread.start();
+	}
+
+	public Endpoint register(CameraAddress address, SocketSettings settings) {
+		return new Endpoint(address, settings);
+	}
+
+	public CompletableFuture<HttpResponse> submit(Endpoint endpoint, byte[] request, boolean resendable, Deadline deadline) {
+		Exchange exchange = new Exchange(request, resendable, deadline);
+		if (!_running) {
+			exchange._future.completeExceptionally(new IOException("Transport is closed"));
+			return exchange._future;
+		}
+		endpoint._queue.offer(exchange);
+		schedule(endpoint);
+		return exchange._future;
+	}
+
+	// Opens the connection ahead of time, so that the next request does not pay for the handshake
+	public void open(Endpoint endpoint) {
+		endpoint._warmUpRequested = true;
+		schedule(endpoint);
+	}
+
+	@Override
+	public void close() {
+		_running = false;
+		_selector.wakeup();
+	}
+
+	private void schedule(Endpoint endpoint) {
+		_pending.offer(endpoint);
+		_selector.wakeup();
+	}
+
+	private void eventLoop() {
+		try {
+			while (_running) {
+				if (_active.isEmpty()) {
+					_selector.select();
+				} else {
+					_selector.select(DEADLINE_CHECK_MS);
+				}
+				Endpoint endpoint;
+				while ((endpoint = _pending.poll()) != null) {
+					service(endpoint);
+				}
+				Iterator<SelectionKey> it = _selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					handleKey(key);
+				}
+				expireExchanges();
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			_logger.error("I/O loop terminated: " + e.toString());
+		} finally {
+			_running = false;
+			shutdown();
+		}
+	}
+
+	private void expireExchanges() {
+		if (_active.isEmpty()) {
+			return;
+		}
+		List<Endpoint> expired = null;
+		for (Endpoint endpoint : _active) {
+			if (endpoint._current != null && endpoint._current._deadline.isExpired()) {
+				if (expired == null) {
+					expired = new ArrayList<Endpoint>();
+				}
+				expired.add(endpoint);
+			}
+		}
+		if (expired != null) {
+			for (Endpoint endpoint : expired) {
+				// Close the connection, a late reply must not be taken as the answer to the next request
+				onError(endpoint, new SocketTimeoutException("No reply from " + endpoint + " before the deadline"));
+			}
+		}
+	}
+
+	private void handleKey(SelectionKey key) {
+		Endpoint endpoint = (Endpoint)key.attachment();
+		if (!key.isValid()) {
+			return;
+		}
+		try {
+			if (key.isConnectable()) {
+				onConnectable(endpoint);
+			} else if (key.isWritable()) {
+				onWritable(endpoint);
+			} else if (key.isReadable()) {
+				onReadable(endpoint);
+			}
+		} catch (IOException e) {
+			onError(endpoint, e);
+		}
+	}
+
+	private boolean isAlive(Endpoint endpoint) {
+		return endpoint._channel != null && endpoint._channel.isOpen() && endpoint._connected
+				&& System.nanoTime() - endpoint._lastUsedNanos <= _maxIdleNanos;
+	}
+
+	private void service(Endpoint endpoint) {
+		if (endpoint._current != null) {
+			return; // Busy, the next exchange is started once the current one completes
+		}
+		endpoint._current = endpoint._queue.poll();
+		try {
+			if (endpoint._current == null) {
+				_active.remove(endpoint);
+				if (endpoint._warmUpRequested) {
+					endpoint._warmUpRequested = false;
+					if (!isAlive(endpoint)) {
+						openChannel(endpoint);
+					}
+				}
+				return;
+			}
+			if (endpoint._current._deadline.isBounded()) {
+				_active.add(endpoint);
+			}
+			start(endpoint);
+		} catch (IOException e) {
+			onError(endpoint, e);
+		}
+	}
+
+	private void start(Endpoint endpoint) throws IOException {
+		endpoint._reused = isAlive(endpoint);
+		if (!endpoint._reused) {
+			openChannel(endpoint);
+			if (!endpoint._connected) {
+				return; // Request is written once the connection is established
+			}
+		}
+		beginWrite(endpoint);
+	}
+
+	private void openChannel(Endpoint endpoint) throws IOException {
+		closeChannel(endpoint);
+		// Only the pinned address is used, the I/O thread must never block on name resolution
+		InetSocketAddress address = endpoint._address.getResolved();
+		if (address == null) {
+			throw new IOException("Address of " + endpoint._address.getHost() + " has not been resolved");
+		}
+		SocketChannel channel = endpoint._settings.openChannel();
+		try {
+			endpoint._channel = channel;
+			endpoint._connected = channel.connect(address);
+		} catch (IOException e) {
+			channel.close();
+			endpoint._channel = null;
+			throw e;
+		}
+		endpoint._key = channel.register(_selector, endpoint._connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, endpoint);
+		endpoint._lastUsedNanos = System.nanoTime();
+	}
+
+	private void onConnectable(Endpoint endpoint) throws IOException {
+		if (!endpoint._channel.finishConnect()) {
+			return;
+		}
+		endpoint._connected = true;
+		endpoint._lastUsedNanos = System.nanoTime();
+		_logger.debug("Opened keep-alive connection to " + endpoint);
+		if (endpoint._current != null) {
+			beginWrite(endpoint);
+		} else {
+			endpoint._key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	private void beginWrite(Endpoint endpoint) throws IOException {
+		if (endpoint._current._deadline.isExpired()) {
+			// Fail before anything is sent, not after the camera has acted on it
+			throw new SocketTimeoutException("Deadline expired before the request to " + endpoint + " was sent");
+		}
+		byte[] request = endpoint._current._request;
+		endpoint._current._sentNanos = System.nanoTime();
+		if (request.length <= _bufferPool.getBufferSize()) {
+			endpoint._writeBuffer = _bufferPool.acquire();
+			endpoint._writeBuffer.put(request).flip();
+		} else {
+			endpoint._writeBuffer = ByteBuffer.wrap(request);
+		}
+		// Try to write right away, most requests fit into the socket buffer without waiting for the selector. The parser
+		// is reset only afterwards, but before anything can be read, and also when the write fails.
+		try {
+			onWritable(endpoint);
+		} finally {
+			endpoint._parser.reset();
+		}
+	}
+
+	private void onWritable(Endpoint endpoint) throws IOException {
+		endpoint._channel.write(endpoint._writeBuffer);
+		if (endpoint._writeBuffer.hasRemaining()) {
+			endpoint._key.interestOps(SelectionKey.OP_WRITE);
+		} else {
+			_bufferPool.release(endpoint._writeBuffer);
+			endpoint._writeBuffer = null;
+			endpoint._key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	private void onReadable(Endpoint endpoint) throws IOException {
+		if (endpoint._readBuffer == null) {
+			endpoint._readBuffer = _bufferPool.acquire();
+		}
+		int n = endpoint._channel.read(endpoint._readBuffer);
+		if (n < 0) {
+			if (endpoint._current == null) {
+				closeChannel(endpoint); // Camera closed an idle connection
+				return;
+			}
+			endpoint._parser.endOfStream();
+			closeChannel(endpoint);
+			complete(endpoint);
+			return;
+		}
+		if (endpoint._current == null) {
+			closeChannel(endpoint); // Unsolicited data, the connection is in an unknown state
+			return;
+		}
+		endpoint._readBuffer.flip();
+		endpoint._parser.feed(endpoint._readBuffer);
+		endpoint._readBuffer.compact();
+		if (endpoint._parser.isComplete()) {
+			HttpResponse response = endpoint._parser.getResponse();
+			if (!response.isKeepAlive() || endpoint._readBuffer.position() > 0) {
+				closeChannel(endpoint);
+			} else {
+				endpoint._lastUsedNanos = System.nanoTime();
+				_bufferPool.release(endpoint._readBuffer);
+				endpoint._readBuffer = null;
+			}
+			complete(endpoint);
+		}
+	}
+
+	private void complete(Endpoint endpoint) {
+		Exchange exchange = endpoint._current;
+		endpoint._current = null;
+		HttpResponse response = endpoint._parser.getResponse();
+		response.setSentNanos(exchange._sentNanos);
+		exchange._future.complete(response);
+		service(endpoint);
+	}
+
+	private void onError(Endpoint endpoint, IOException e) {
+		closeChannel(endpoint);
+		Exchange exchange = endpoint._current;
+		if (exchange == null) {
+			return;
+		}
+		if (exchange._resendable && endpoint._reused && !endpoint._parser.hasStarted() && !exchange._retried
+				&& !(e instanceof SocketTimeoutException) && !exchange._deadline.isExpired()) {
+			// The camera silently dropped the idle connection, retry once on a fresh one
+			_logger.debug("Keep-alive connection to " + endpoint + " went stale (" + e.toString() + "), reconnecting");
+			exchange._retried = true;
+			try {
+				start(endpoint);
+				return;
+			} catch (IOException e2) {
+				e = e2;
+				closeChannel(endpoint);
+			}
+		}
+		endpoint._current = null;
+		exchange._future.completeExceptionally(e);
+		service(endpoint);
+	}
+
+	private void closeChannel(Endpoint endpoint) {
+		if (endpoint._channel != null) {
+			try {
+				endpoint._channel.close();
+			} catch (IOException e) {
+				// Ignore, channel is discarded anyway
+			}
+		}
+		endpoint._channel = null;
+		endpoint._key = null;
+		endpoint._connected = false;
+		if (endpoint._writeBuffer != null) {
+			_bufferPool.release(endpoint._writeBuffer);
+			endpoint._writeBuffer = null;
+		}
+		if (endpoint._readBuffer != null) {
+			_bufferPool.release(endpoint._readBuffer);
+			endpoint._readBuffer = null;
+		}
+	}
+
+	private void shutdown() {
+		for (SelectionKey key : _selector.keys()) {
+			Endpoint endpoint = (Endpoint)key.attachment();
+			closeChannel(endpoint);
+			failAll(endpoint);
+		}
+		Endpoint endpoint;
+		while ((endpoint = _pending.poll()) != null) {
+			failAll(endpoint);
+		}
+		try {
+			_selector.close();
+		} catch (IOException e) {
+			// Ignore, shutting down anyway
+		}
+	}
+
+	private void failAll(Endpoint endpoint) {
+		IOException e = new IOException("Transport is closed");
+		if (endpoint._current != null) {
+			endpoint._current._future.completeExceptionally(e);
+			endpoint._current = null;
+		}
+		Exchange exchange;
+		while ((exchange = endpoint._queue.poll()) != null) {
+			exchange._future.completeExceptionally(e);
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+
+// The command was not sent, because the camera is not logged in. The cause is the failure of the last login
+// attempt, null if no attempt has failed yet.
+public class NotLoggedInException extends IOException {
+	private static final long serialVersionUID = 6120853373421846672L;
+
+	public NotLoggedInException(String message, IOException cause) {
+		super(message, cause);
+	}
+}
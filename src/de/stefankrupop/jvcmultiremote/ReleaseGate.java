@@ -0,0 +1,129 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Lets sender threads get ready (connection open, request prepared) and then releases them all at once, so that
+// the order in which the threads were started does not turn into skew between the cameras.
+class ReleaseGate {
+	private static final long SPIN_NANOS = 2000000;
+
+	private final CountDownLatch _ready;
+	private final CountDownLatch _release;
+	private volatile long _releaseAtNanos;
+	private List<DelayedAction> _onRelease;
+	private boolean _released;
+
+	// Only the number of senders that can run at the same time may be given as parties,
+	// senders arriving after the release pass straight through
+	public ReleaseGate(int parties) {
+		_ready = new CountDownLatch(parties);
+		_release = new CountDownLatch(1);
+		_onRelease = new ArrayList<DelayedAction>();
+	}
+
+	// Called by a sender that could not get ready, so that the others do not wait for it
+	public void arrive() {
+		_ready.countDown();
+	}
+
+	// Called by a ready sender, blocks until release() and then waits until delayNanos after the release instant.
+	// Returns false if the deadline passed before the release, the sender must not send then.
+	public boolean arriveAndAwait(Deadline deadline, long delayNanos) throws InterruptedException {
+		_ready.countDown();
+		if (deadline.isBounded()) {
+			if (!_release.await(deadline.remainingNanos(), TimeUnit.NANOSECONDS)) {
+				return false;
+			}
+		} else {
+			_release.await();
+		}
+		waitUntil(_releaseAtNanos + delayNanos);
+		return true;
+	}
+
+	// Waits until all parties have arrived, returns false if the deadline passed first
+	public boolean awaitReady(Deadline deadline) throws InterruptedException {
+		if (deadline.isBounded()) {
+			return _ready.await(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+		}
+		_ready.await();
+		return true;
+	}
+
+	// Runs the action on the releasing thread delayNanos after the gate opens, used for senders that do not need
+	// a thread of their own. Runs it right away if the gate is already open.
+	public void onRelease(long delayNanos, Runnable action) {
+		synchronized (this) {
+			if (!_released) {
+				_onRelease.add(new DelayedAction(delayNanos, action));
+				return;
+			}
+		}
+		action.run();
+	}
+
+	// Opens the gate. With spinNanos > 0, the senders are woken up early and spin until that much time has passed,
+	// so that the differing wake-up latencies of their threads are absorbed.
+	public void release(long spinNanos) {
+		releaseAt(System.nanoTime() + spinNanos);
+	}
+
+	// Opens the gate, the senders wait until System.nanoTime() reaches releaseAtNanos plus their delay
+	public void releaseAt(long releaseAtNanos) {
+		List<DelayedAction> actions;
+		synchronized (this) {
+			if (_released) {
+				return;
+			}
+			_released = true;
+			actions = _onRelease;
+			_onRelease = null;
+		}
+		_releaseAtNanos = releaseAtNanos;
+		_release.countDown();
+		Collections.sort(actions);
+		for (DelayedAction action : actions) {
+			try {
+				waitUntil(releaseAtNanos + action._delayNanos);
+			} catch (InterruptedException e) {
+				// Run the remaining actions right away, none of them may be lost
+				Thread.currentThread().interrupt();
+			}
+			action._action.run();
+		}
+	}
+
+	// Sleeps coarsely and spins for the last SPIN_NANOS, because sleeping alone overshoots by up to a few ms
+	static void waitUntil(long targetNanos) throws InterruptedException {
+		long remaining;
+		while ((remaining = targetNanos - System.nanoTime()) > SPIN_NANOS) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			LockSupport.parkNanos(remaining - SPIN_NANOS);
+		}
+		while (System.nanoTime() - targetNanos < 0) {
+			// Busy wait, waking up from a sleep takes longer and varies between threads
+		}
+	}
+
+	private static class DelayedAction implements Comparable<DelayedAction> {
+		private final long _delayNanos;
+		private final Runnable _action;
+
+		private DelayedAction(long delayNanos, Runnable action) {
+			_delayNanos = delayNanos;
+			_action = action;
+		}
+
+		@Override
+		public int compareTo(DelayedAction o) {
+			return Long.compare(_delayNanos, o._delayNanos);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Serializes commands into complete HTTP requests for one camera, reusing its buffers
+class RequestEncoder {
+	private final byte[] _headerPrefix;
+	private final JsonWriter _body;
+	private final JsonWriter _request;
+
+	public RequestEncoder(String path, String host) {
+		_headerPrefix = ("POST " + path + " HTTP/1.1\r\n"
+				+ "Host: " + host + "\r\n"
+				+ "Content-Type: application/json\r\n"
+				+ "Connection: keep-alive\r\n"
+				+ "Content-Length: ").getBytes(StandardCharsets.ISO_8859_1);
+		_body = new JsonWriter(256);
+		_request = new JsonWriter(512);
+	}
+
+	// Returns an independent copy, so that the request can be queued while the encoder is reused
+	public synchronized byte[] encode(JvcCommand command, String sessionId) throws IOException {
+		_body.reset();
+		command.writeRequest(_body, sessionId);
+		_request.reset();
+		_request.write(_headerPrefix, 0, _headerPrefix.length);
+		_request.writeDigits(_body.length());
+		_request.writeAscii("\r\n\r\n");
+		_request.write(_body.buffer(), 0, _body.length());
+		return Arrays.copyOf(_request.buffer(), _request.length());
+	}
+}
@@ -0,0 +1,52 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// How Rec Start/Stop is repeated when a camera does not acknowledge it: up to maxAttempts sends within the command's
+// deadline, with a jittered, exponentially growing pause in between. With hedging, a duplicate is sent on a second
+// connection when the first request has been outstanding for longer than the camera's p95 round trip of Rec commands.
+public final class RetryPolicy {
+	public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, false);
+
+	private final int _maxAttempts;
+	private final long _baseBackoffNanos;
+	private final long _maxBackoffNanos;
+	private final boolean _hedging;
+
+	public RetryPolicy(int maxAttempts, long baseBackoffMs, long maxBackoffMs, boolean hedging) {
+		_maxAttempts = Math.max(1, maxAttempts);
+		_baseBackoffNanos = Math.max(0, baseBackoffMs) * 1000000L;
+		_maxBackoffNanos = Math.max(_baseBackoffNanos, maxBackoffMs * 1000000L);
+		_hedging = hedging;
+	}
+
+	public static RetryPolicy fromConfig() {
+		return new RetryPolicy(Config.getPropertyInt("recordRetries", 2) + 1, Config.getPropertyInt("recordRetryBackoffMs", 10),
+				Config.getPropertyInt("recordRetryMaxBackoffMs", 100), Config.getPropertyBool("recordHedging", false));
+	}
+
+	// Including the first send
+	public int getMaxAttempts() {
+		return _maxAttempts;
+	}
+
+	public boolean isHedging() {
+		return _hedging;
+	}
+
+	// Pause before the given retry (1 for the first), drawn uniformly between 0 and the exponential backoff ("full
+	// jitter"), so that cameras that failed together do not retry in lockstep
+	public long backoffNanos(int retry) {
+		if (_baseBackoffNanos == 0) {
+			return 0;
+		}
+		long cap = _baseBackoffNanos << Math.min(retry - 1, 20);
+		return ThreadLocalRandom.current().nextLong(Math.min(cap, _maxBackoffNanos) + 1);
+	}
+
+	@Override
+	public String toString() {
+		return (_maxAttempts - 1) + " retries, backoff " + (_baseBackoffNanos / 1000000L) + "-" + (_maxBackoffNanos / 1000000L) + " ms"
+				+ (_hedging ? ", hedging" : "");
+	}
+}
@@ -0,0 +1,47 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.util.Arrays;
+
+// Exponentially weighted moving average of a camera's round trip time, smoothed like TCP's SRTT (weight 1/8)
+class RttEstimator {
+	private static final int SHIFT = 3;
+	private static final int WINDOW = 64;
+
+	private long _smoothedNanos;
+	private int _samples;
+	private final long[] _window = new long[WINDOW];
+
+	public synchronized void update(long rttNanos) {
+		if (rttNanos <= 0) {
+			return;
+		}
+		if (_samples == 0) {
+			_smoothedNanos = rttNanos;
+		} else {
+			_smoothedNanos += (rttNanos - _smoothedNanos) >> SHIFT;
+		}
+		_window[_samples % WINDOW] = rttNanos;
+		_samples++;
+	}
+
+	// 0 if there is no sample yet
+	public synchronized long getEstimateNanos() {
+		return _smoothedNanos;
+	}
+
+	// Nearest-rank percentile of the last WINDOW samples, p between 0 and 100. 0 if there is no sample yet.
+	public synchronized long getPercentileNanos(double p) {
+		int n = Math.min(_samples, WINDOW);
+		if (n == 0) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(_window, n);
+		Arrays.sort(sorted);
+		int rank = (int)Math.ceil(p / 100.0 * n);
+		return sorted[Math.max(0, Math.min(n - 1, rank - 1))];
+	}
+
+	public synchronized int getSampleCount() {
+		return _samples;
+	}
+}
@@ -0,0 +1,170 @@
+package de.stefankrupop.jvcmultiremote;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.Enumeration;
+
+// Per-camera socket options, given as optional key=value columns in cameras.txt:
+// bind=<interface or local IP>, nodelay=true|false, sndbuf=<bytes>, rcvbuf=<bytes>, tos=<traffic class>, dscp=<code point>
+public final class SocketSettings {
+	public static final SocketSettings DEFAULT = new SocketSettings(null, true, 0, 0, -1);
+
+	private final InetAddress _bindAddress;
+	private final boolean _tcpNoDelay;
+	private final int _sendBufferSize;
+	private final int _receiveBufferSize;
+	private final int _trafficClass;
+
+	private SocketSettings(InetAddress bindAddress, boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize, int trafficClass) {
+		_bindAddress = bindAddress;
+		_tcpNoDelay = tcpNoDelay;
+		_sendBufferSize = sendBufferSize;
+		_receiveBufferSize = receiveBufferSize;
+		_trafficClass = trafficClass;
+	}
+
+	// Parses the key=value columns starting at index 'from', other columns are skipped. Interface names are resolved to an address here,
+	// so that opening a connection does not have to look them up.
+	public static SocketSettings parse(String[] parts, int from) throws IOException {
+		InetAddress bindAddress = null;
+		boolean tcpNoDelay = DEFAULT._tcpNoDelay;
+		int sendBufferSize = 0;
+		int receiveBufferSize = 0;
+		int trafficClass = -1;
+		for (int i = from; i < parts.length; i++) {
+			String part = parts[i].trim();
+			if (part.isEmpty()) {
+				continue;
+			}
+			int eq = part.indexOf('=');
+			if (eq <= 0) {
+				// Plain columns after the fourth were always ignored
+				continue;
+			}
+			String key = part.substring(0, eq).trim().toLowerCase();
+			String value = part.substring(eq + 1).trim();
+			try {
+				switch (key) {
+					case "bind":
+						bindAddress = resolveBindAddress(value);
+						break;
+					case "nodelay":
+						tcpNoDelay = Boolean.parseBoolean(value);
+						break;
+					case "sndbuf":
+						sendBufferSize = Integer.parseInt(value);
+						break;
+					case "rcvbuf":
+						receiveBufferSize = Integer.parseInt(value);
+						break;
+					case "tos":
+						trafficClass = Integer.decode(value);
+						break;
+					case "dscp":
+						// The code point occupies the upper six bits of the traffic class
+						trafficClass = Integer.decode(value) << 2;
+						break;
+					default:
+						// Other key=value columns are left for other settings
+						continue;
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid socket option '" + part + "': Not a number");
+			}
+			if ((key.equals("tos") || key.equals("dscp")) && (trafficClass < 0 || trafficClass > 255)) {
+				throw new IOException("Invalid socket option '" + part + "': Traffic class out of range");
+			}
+		}
+		return new SocketSettings(bindAddress, tcpNoDelay, sendBufferSize, receiveBufferSize, trafficClass);
+	}
+
+	// Accepts a local IP address or the name of a network interface, whose first IPv4 address is used
+	private static InetAddress resolveBindAddress(String value) throws IOException {
+		NetworkInterface nif = NetworkInterface.getByName(value);
+		if (nif == null) {
+			try {
+				InetAddress address = InetAddress.getByName(value);
+				if (NetworkInterface.getByInetAddress(address) == null) {
+					throw new IOException("Invalid bind address '" + value + "': Not a local address");
+				}
+				return address;
+			} catch (UnknownHostException e) {
+				throw new IOException("Invalid bind address '" + value + "': No such interface or address");
+			}
+		}
+		InetAddress fallback = null;
+		Enumeration<InetAddress> addresses = nif.getInetAddresses();
+		while (addresses.hasMoreElements()) {
+			InetAddress address = addresses.nextElement();
+			if (address instanceof Inet4Address) {
+				return address;
+			}
+			if (fallback == null) {
+				fallback = address;
+			}
+		}
+		if (fallback == null) {
+			throw new IOException("Invalid bind address '" + value + "': Interface has no address");
+		}
+		return fallback;
+	}
+
+	public Socket createSocket() throws IOException {
+		Socket socket = new Socket();
+		try {
+			configure(socket);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	// Opens an unconnected channel in non-blocking mode with the settings applied
+	public SocketChannel openChannel() throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.configureBlocking(false);
+			configure(channel.socket());
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	// Buffer sizes have to be set before connecting to affect the TCP window
+	private void configure(Socket socket) throws IOException {
+		socket.setKeepAlive(true);
+		socket.setTcpNoDelay(_tcpNoDelay);
+		if (_sendBufferSize > 0) {
+			socket.setSendBufferSize(_sendBufferSize);
+		}
+		if (_receiveBufferSize > 0) {
+			socket.setReceiveBufferSize(_receiveBufferSize);
+		}
+		if (_trafficClass >= 0) {
+			try {
+				socket.setTrafficClass(_trafficClass);
+			} catch (SocketException e) {
+				// Not supported on every platform, the connection works without it
+			}
+		}
+		if (_bindAddress != null) {
+			socket.bind(new InetSocketAddress(_bindAddress, 0));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "bind=" + ((_bindAddress != null) ? _bindAddress.getHostAddress() : "any") + ", nodelay=" + _tcpNoDelay
+				+ ", sndbuf=" + _sendBufferSize + ", rcvbuf=" + _receiveBufferSize + ", tos=" + _trafficClass;
+	}
+}